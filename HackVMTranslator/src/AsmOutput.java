@@ -0,0 +1,296 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+// growable byte buffer the asm text is spliced into.
+// backed by a file, it is written out through a FileChannel whenever the buffer is full,
+// so the emit path only copies bytes and allocates nothing per command.
+// backed by a HackInstr.Sink, the complete lines are decoded into it instead.
+// a sink that is Closeable, like HackEncoder, is closed along with it.
+// the marks of SourceMap go along the bytes without being written: into the sink in between the lines,
+// or into the SourceMap as ROM addresses when written out to a file.
+public class AsmOutput implements Closeable {
+    private static final int FILE_BUFFER_SIZE = 1 << 16;
+    private static final int MEMORY_BUFFER_SIZE = 1 << 10;
+
+    private final FileChannel channel;
+    private final HackInstr.Sink sink;
+    private final Symbols symbols;
+    private byte[] buf;
+    private ByteBuffer view;
+    private int size;
+    // the bytes written out or decoded so far
+    private long drained;
+    // with countLines, the '\n' and the label '(' put so far, for Metrics
+    private boolean countLines;
+    private long newlines;
+    private long labels;
+    // SourceMap marks as {byte position, command id} pairs, in order
+    private int[] marks = new int[0];
+    private int nMarks;
+    // with a SourceMap, the instructions written out to the file so far
+    private SourceMap sourceMap;
+    private int address;
+
+    // in-memory buffer, read back by writeTo()
+    public AsmOutput() {
+        channel = null;
+        sink = null;
+        symbols = null;
+        buf = new byte[MEMORY_BUFFER_SIZE];
+    }
+
+    public AsmOutput(File f) throws IOException {
+        channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        sink = null;
+        symbols = null;
+        buf = new byte[FILE_BUFFER_SIZE];
+        view = ByteBuffer.wrap(buf);
+    }
+
+    // decode into sink, symbols are interned into symbols
+    public AsmOutput(Symbols symbols, HackInstr.Sink sink) {
+        channel = null;
+        this.sink = sink;
+        this.symbols = symbols;
+        buf = new byte[FILE_BUFFER_SIZE];
+    }
+
+    // pre-encode a fixed asm block once, at class init
+    public static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public AsmOutput put(byte[] template) {
+        ensureCapacity(template.length);
+        System.arraycopy(template, 0, buf, size, template.length);
+        if (countLines)
+            count(size, template.length);
+        size += template.length;
+        return this;
+    }
+
+    // assume s is ascii, like a label or a symbol
+    public AsmOutput put(String s) {
+        final int n = s.length();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++)
+            buf[size++] = (byte) s.charAt(i);
+        if (countLines)
+            count(size - n, n);
+        return this;
+    }
+
+    public AsmOutput put(char c) {
+        ensureCapacity(1);
+        buf[size++] = (byte) c;
+        if (countLines)
+            count(size - 1, 1);
+        return this;
+    }
+
+    // decimal digits of i, without going through a String
+    public AsmOutput putInt(int i) {
+        if (i < 0) {
+            put('-');
+            if (i == Integer.MIN_VALUE)
+                return put("2147483648");
+            i = -i;
+        }
+        int digits = 1;
+        for (int x = i; x >= 10; x /= 10)
+            digits++;
+        ensureCapacity(digits);
+        for (int pos = size + digits - 1; pos >= size; pos--) {
+            buf[pos] = (byte) ('0' + i % 10);
+            i /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // the asm put from now on belongs to the SourceMap command id
+    public void mark(int id) {
+        addMark(size, id);
+    }
+
+    // turn the marks into ROM addresses as the asm is written out, for the file of the output
+    public void sourceMap(SourceMap sourceMap) {
+        this.sourceMap = sourceMap;
+    }
+
+    // count the asm instructions from now on, off by default as it looks at every byte put
+    public void countLines() {
+        countLines = true;
+    }
+
+    // the asm instructions put since countLines(), labels aside
+    public long instructions() {
+        return newlines - labels;
+    }
+
+    // the bytes put so far
+    public long bytes() {
+        return drained + size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, size);
+    }
+
+    public void reset() {
+        drained += size;
+        size = 0;
+        nMarks = 0;
+    }
+
+    // append the pending bytes of this buffer to other
+    public void writeTo(AsmOutput other) {
+        other.ensureCapacity(size);
+        for (int m = 0; m < nMarks; m++)
+            other.addMark(other.size + marks[2 * m], marks[2 * m + 1]);
+        System.arraycopy(buf, 0, other.buf, other.size, size);
+        other.size += size;
+    }
+
+    // a sink also passes on what it holds back, so the next write starts clean
+    public void flush() throws IOException {
+        drain();
+        if (sink != null)
+            sink.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (sourceMap != null)
+            sourceMap.end(address);
+        if (channel != null)
+            channel.close();
+        if (sink instanceof Closeable)
+            ((Closeable) sink).close();
+    }
+
+    // write out the buffer, or decode its complete lines
+    private void drain() throws IOException {
+        if (size == 0)
+            return;
+        if (channel != null) {
+            if (sourceMap != null)
+                locateMarks();
+            view.clear().limit(size);
+            while (view.hasRemaining())
+                channel.write(view);
+            drained += size;
+            size = 0;
+        } else if (sink != null) {
+            int end = size;
+            while (end > 0 && buf[end - 1] != '\n')
+                end--;
+            decodeTo(end);
+            System.arraycopy(buf, end, buf, 0, size - end);
+            drained += end;
+            size -= end;
+        }
+    }
+
+    // decode buf[0, end) into the sink, with the marks in between the lines
+    private void decodeTo(int end) {
+        int from = 0;
+        int m = 0;
+        for (; m < nMarks && marks[2 * m] <= end; m++) {
+            HackInstr.decode(buf, from, marks[2 * m] - from, symbols, sink);
+            sink.accept(HackInstr.mark(marks[2 * m + 1]));
+            from = marks[2 * m];
+        }
+        HackInstr.decode(buf, from, end - from, symbols, sink);
+        dropMarks(m, end);
+    }
+
+    // the ROM address of each mark, counting the instructions of the whole buffer
+    private void locateMarks() {
+        int from = 0;
+        for (int m = 0; m < nMarks; m++) {
+            address += instructions(from, marks[2 * m]);
+            sourceMap.at(marks[2 * m + 1], address);
+            from = marks[2 * m];
+        }
+        address += instructions(from, size);
+        nMarks = 0;
+    }
+
+    // the lines of buf[from, to) but the labels
+    private int instructions(int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '\n')
+                n++;
+            else if (buf[i] == '(')
+                n--;
+        }
+        return n;
+    }
+
+    private void addMark(int pos, int id) {
+        if (2 * nMarks == marks.length)
+            marks = Arrays.copyOf(marks, Math.max(16, 2 * marks.length));
+        marks[2 * nMarks] = pos;
+        marks[2 * nMarks + 1] = id;
+        nMarks++;
+    }
+
+    // drop the first n marks, the bytes before pos are gone
+    private void dropMarks(int n, int pos) {
+        for (int m = n; m < nMarks; m++) {
+            marks[2 * (m - n)] = marks[2 * m] - pos;
+            marks[2 * (m - n) + 1] = marks[2 * m + 1];
+        }
+        nMarks -= n;
+    }
+
+    private void count(int from, int n) {
+        for (int i = from; i < from + n; i++) {
+            if (buf[i] == '\n')
+                newlines++;
+            else if (buf[i] == '(')
+                labels++;
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (size + n <= buf.length)
+            return;
+        if (channel != null || sink != null) {
+            try {
+                drain();
+            } catch (IOException e) {
+                throw new IllegalStateException("flush err", e);
+            }
+            if (size + n <= buf.length)
+                return;
+        }
+        int cap = buf.length * 2;
+        while (cap < size + n)
+            cap *= 2;
+        byte[] grown = new byte[cap];
+        System.arraycopy(buf, 0, grown, 0, size);
+        buf = grown;
+        if (channel != null)
+            view = ByteBuffer.wrap(buf);
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+// last pass: print the compact instructions back to asm text
+public class AsmPrinter implements HackInstr.Sink {
+    private final Symbols symbols;
+    private final AsmOutput out;
+
+    public AsmPrinter(Symbols symbols, AsmOutput out) {
+        this.symbols = symbols;
+        this.out = out;
+    }
+
+    @Override
+    public void accept(int instr) {
+        if (HackInstr.kind(instr) == HackInstr.MARK)
+            out.mark(HackInstr.payload(instr));
+        else
+            HackInstr.print(instr, symbols, out);
+    }
+
+    @Override
+    public void flush() {
+    }
+}
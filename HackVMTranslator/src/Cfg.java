@@ -0,0 +1,146 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * control-flow graph of one VmFunction, for the dataflow passes.
+ * a basic block starts at the first command, at a label and after a goto, if-goto or return,
+ * and runs up to the next start. a block can leave the function without a return,
+ * by falling off the end or by a goto to a label the function doesn't have.
+ * a block that never gets to a return or out, like the halt loop of a test, halts
+ */
+public final class Cfg {
+    private static final int[] NONE = {};
+
+    public final VmFunction function;
+    // block b is the commands [starts[b], starts[b + 1])
+    private final int[] starts;
+    private final int[][] successors;
+    private final int[][] predecessors;
+    private final boolean[] exits;
+    private final boolean[] halts;
+
+    public Cfg(VmFunction f) {
+        function = f;
+        final int n = f.size();
+        boolean[] leader = new boolean[n + 1];
+        leader[0] = true;
+        leader[n] = true;
+        for (int i = 0; i < n; i++) {
+            final Op op = f.op(i);
+            if (op == Op.LABEL)
+                leader[i] = true;
+            else if (op == Op.GOTO || op == Op.IF_GOTO || op == Op.RETURN)
+                leader[i + 1] = true;
+        }
+        int nBlocks = 0;
+        starts = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            if (leader[i])
+                starts[nBlocks++] = i;
+        }
+        starts[nBlocks] = n;
+
+        // label symbol id -> its block
+        Map<Integer, Integer> labels = new HashMap<>();
+        for (int b = 0; b < nBlocks; b++) {
+            if (f.op(starts[b]) == Op.LABEL)
+                labels.put(f.label(starts[b]), b);
+        }
+        successors = new int[nBlocks][];
+        exits = new boolean[nBlocks];
+        int[] nPredecessors = new int[nBlocks];
+        for (int b = 0; b < nBlocks; b++) {
+            final int last = starts[b + 1] - 1;
+            final Op op = f.op(last);
+            int[] succ = NONE;
+            if (op == Op.GOTO || op == Op.IF_GOTO) {
+                Integer target = labels.get(f.label(last));
+                if (target == null)
+                    exits[b] = true;
+                else
+                    succ = new int[] {target};
+            }
+            if (op != Op.GOTO && op != Op.RETURN) {
+                if (b + 1 < nBlocks) {
+                    succ = Arrays.copyOf(succ, succ.length + 1);
+                    succ[succ.length - 1] = b + 1;
+                } else {
+                    exits[b] = true;
+                }
+            }
+            successors[b] = succ;
+            for (int s : succ)
+                nPredecessors[s]++;
+        }
+        predecessors = new int[nBlocks][];
+        for (int b = 0; b < nBlocks; b++)
+            predecessors[b] = new int[nPredecessors[b]];
+        for (int b = 0; b < nBlocks; b++) {
+            for (int s : successors[b])
+                predecessors[s][--nPredecessors[s]] = b;
+        }
+
+        // back from the blocks that return or exit
+        halts = new boolean[nBlocks];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        for (int b = 0; b < nBlocks; b++) {
+            if (exits[b] || f.op(starts[b + 1] - 1) == Op.RETURN)
+                work.add(b);
+            else
+                halts[b] = true;
+        }
+        while (!work.isEmpty()) {
+            for (int p : predecessors[work.poll()]) {
+                if (halts[p]) {
+                    halts[p] = false;
+                    work.add(p);
+                }
+            }
+        }
+    }
+
+    // the number of blocks, 0 for an empty function
+    public int size() {
+        return successors.length;
+    }
+
+    public int start(int b) {
+        return starts[b];
+    }
+
+    // one past the last command of b
+    public int end(int b) {
+        return starts[b + 1];
+    }
+
+    public int[] successors(int b) {
+        return successors[b];
+    }
+
+    public int[] predecessors(int b) {
+        return predecessors[b];
+    }
+
+    // b may leave the function without a return
+    public boolean exits(int b) {
+        return exits[b];
+    }
+
+    // b never gets to a return or out of the function
+    public boolean halts(int b) {
+        return halts[b];
+    }
+
+    // the block of command i
+    public int blockOf(int i) {
+        int b = Arrays.binarySearch(starts, 0, size() + 1, i);
+        return b >= 0 ? b : -b - 2;
+    }
+}
@@ -1,10 +1,5 @@
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 
 /**
  * @author Joiy908
@@ -13,56 +8,404 @@ import java.nio.charset.StandardCharsets;
 
 // CodeWriter need to explicitly close
 public class CodeWriter implements Closeable {
-    private FileOutputStream out;
-    private final Charset OUT_FILE_CHARSET = StandardCharsets.US_ASCII;
-    private int staticCount;
+    // ========== pre-encoded asm blocks, operands are spliced in between
+    private static final byte[] INIT_SP = AsmOutput.ascii("@256\nD=A\n@SP\nM=D\n");
+    private static final byte[] INCR_SP = AsmOutput.ascii("@SP\nM=M+1\n");
+    // *SP=D
+    private static final byte[] LET_GO_SP_EQ_D = AsmOutput.ascii("@SP\nA=M\nM=D\n");
+    // SP--, D=*SP
+    private static final byte[] DECR_SP_LET_D = AsmOutput.ascii("@SP\nAM=M-1\nD=M\n");
+    private static final byte[] NL_D_EQ_A = AsmOutput.ascii("\nD=A\n");
+    private static final byte[] NL_D_EQ_NOT_A = AsmOutput.ascii("\nD=!A\n");
+    private static final byte[] D_EQ_0 = AsmOutput.ascii("D=0\n");
+    private static final byte[] D_EQ_1 = AsmOutput.ascii("D=1\n");
+    private static final byte[] D_EQ_MINUS_1 = AsmOutput.ascii("D=-1\n");
+    // *SP = -1/0/1
+    private static final byte[] LET_GO_SP_EQ_MINUS_1 = AsmOutput.ascii("@SP\nA=M\nM=-1\n");
+    private static final byte[] LET_GO_SP_EQ_0 = AsmOutput.ascii("@SP\nA=M\nM=0\n");
+    private static final byte[] LET_GO_SP_EQ_1 = AsmOutput.ascii("@SP\nA=M\nM=1\n");
+    private static final byte[] NL_D_EQ_M = AsmOutput.ascii("\nD=M\n");
+    private static final byte[] NL_M_EQ_D = AsmOutput.ascii("\nM=D\n");
+    private static final byte[] NL_A_EQ_M_M_EQ_D = AsmOutput.ascii("\nA=M\nM=D\n");
+    private static final byte[] NL_A_EQ_M_D_EQ_M = AsmOutput.ascii("\nA=M\nD=M\n");
+    private static final byte[] NL_A_EQ_D_PLUS_M_D_EQ_M = AsmOutput.ascii("\nA=D+M\nD=M\n");
+    private static final byte[] NL_D_EQ_D_PLUS_M_LET_R13 = AsmOutput.ascii("\nD=D+M\n@R13\nM=D\n");
+    private static final byte[] LET_GO_R13_EQ_D = AsmOutput.ascii("@R13\nA=M\nM=D\n");
+    private static final byte[] AT_R3 = AsmOutput.ascii("@R3");
+    private static final byte[] AT_R4 = AsmOutput.ascii("@R4");
+
+    private static final byte[] BINARY_OPERATION = AsmOutput.ascii("@SP\nAM=M-1\nD=M\n@SP\nAM=M-1\nD=");
+    private static final byte[] D_PLUS_M = AsmOutput.ascii("D+M");
+    private static final byte[] M_MINUS_D = AsmOutput.ascii("M-D");
+    private static final byte[] D_AND_M = AsmOutput.ascii("D&M");
+    private static final byte[] D_OR_M = AsmOutput.ascii("D|M");
+    private static final byte[] NEG = AsmOutput.ascii("@SP\nAM=M-1\nM=-M\n");
+    private static final byte[] NOT = AsmOutput.ascii("@SP\nAM=M-1\nM=!M\n");
+
+    private static final byte[] COMPARE_HEAD = AsmOutput.ascii("@SP\nAM=M-1\nD=M\n@SP\nAM=M-1\nD=M-D\n@");
+    private static final byte[] JEQ = AsmOutput.ascii("\nD;JEQ\n");
+    private static final byte[] JLT = AsmOutput.ascii("\nD;JLT\n");
+    private static final byte[] JGT = AsmOutput.ascii("\nD;JGT\n");
+    private static final byte[] PUSH_FALSE_AND_JUMP = AsmOutput.ascii("@SP\nA=M\nM=0\n@");
+    private static final byte[] NL_JMP = AsmOutput.ascii("\n0;JMP\n");
+    private static final byte[] PUSH_TRUE = AsmOutput.ascii(")\n@SP\nA=M\nM=-1\n");
+    private static final byte[] END_COMPARE = AsmOutput.ascii(")\n@SP\nM=M+1\n");
+    // a second '$' keeps the compare labels apart from F$label of a VM label like cmp.0, which has no '$'
+    private static final byte[] COMPARE_LABEL_INFIX = AsmOutput.ascii("$$cmp.");
+    private static final byte[] END_COMPARE_LABEL_SUFFIX = AsmOutput.ascii(".end");
+
+    private static final byte[] NL_D_JNE = AsmOutput.ascii("\nD;JNE\n");
+    private static final byte[] NL_D_JGE = AsmOutput.ascii("\nD;JGE\n");
+    private static final byte[] NL_D_JLE = AsmOutput.ascii("\nD;JLE\n");
+    // SP -= 2, D = x - y, jump to the label
+    private static final byte[] COMPARE_BRANCH_HEAD = AsmOutput.ascii("@SP\nAM=M-1\nD=M\n@SP\nAM=M-1\nD=M-D\n@");
+    private static final byte[] CLOSE_LABEL = AsmOutput.ascii(")\n");
+
+    // push LCL/ARG...
+    private static final byte[] CALL_SAVE_FRAME = AsmOutput.ascii("\nD=A\n@SP\nA=M\nM=D\n"
+            + "@LCL\nD=M\n@SP\nAM=M+1\nM=D\n"
+            + "@ARG\nD=M\n@SP\nAM=M+1\nM=D\n"
+            + "@THIS\nD=M\n@SP\nAM=M+1\nM=D\n"
+            + "@THAT\nD=M\n@SP\nAM=M+1\nM=D\n@");
+    // SP++, ARG = SP-(5+nArgs)
+    private static final byte[] CALL_REPOSITION = AsmOutput.ascii("\nD=A\n@SP\nM=M+1\nD=M-D\n@ARG\nM=D\n"
+            + "@SP\nD=M\n@LCL\nM=D\n@");
+    private static final byte[] RET_LABEL_INFIX = AsmOutput.ascii("$ret.");
+    private static final byte[] SYS_INIT = AsmOutput.ascii("Sys.init");
+    // the bootstrap calls Sys.init outside of any file, '$' keeps its labels apart from those of a .vm name
+    private static final byte[] BOOTSTRAP_NAME = AsmOutput.ascii("$bootstrap");
+    private static final byte[] INIT_FIRST_LOCAL = AsmOutput.ascii("@SP\nA=M\nM=0\n@SP\nAM=M+1\n");
+    private static final byte[] INIT_NEXT_LOCAL = AsmOutput.ascii("M=0\n@SP\nAM=M+1\n");
+    // SP += D, or SP++ up to MAX_SP_INCREMENTS times, for the locals that aren't set to 0
+    private static final byte[] SP_PLUS_D = AsmOutput.ascii("@SP\nM=M+D\n");
+    private static final byte[] AT_SP = AsmOutput.ascii("@SP\n");
+    private static final byte[] M_EQ_M_PLUS_1 = AsmOutput.ascii("M=M+1\n");
+    private static final int MAX_SP_INCREMENTS = 3;
+    // set R13 as endFrame and R14 as retAddr
+    // R13 = LCL; R14 = *(R13-5)
+    static final String RETURN_SAVE_FRAME_LINES = "@LCL\nD=M\n@R13\nM=D\n@5\nD=A\n@R13\nA=M-D\nD=M\n@R14\nM=D\n";
+    static final String RETURN_RESTORE_FRAME_LINES =
+            // SP = ARG + 1
+            "@ARG\nD=M\n@SP\nM=D+1\n"
+            // THAT = *(R13-1)
+            + "@R13\nA=M-1\nD=M\n@THAT\nM=D\n"
+            // R13--; THIS = *(R13-1) # THAT = *(R13-2)
+            + "@R13\nM=M-1\nA=M-1\nD=M\n@THIS\nM=D\n"
+            + "@R13\nM=M-1\nA=M-1\nD=M\n@ARG\nM=D\n"
+            + "@R13\nM=M-1\nA=M-1\nD=M\n@LCL\nM=D\n"
+            // goto R14
+            + "@R14\nA=M\n0;JMP\n";
+    private static final String RETURN_LINES = RETURN_SAVE_FRAME_LINES
+            // *ARG=pop() => *ARG=*(--SP)
+            + "@SP\nAM=M-1\nD=M\n@ARG\nA=M\nM=D\n"
+            + RETURN_RESTORE_FRAME_LINES;
+    private static final byte[] RETURN = AsmOutput.ascii(RETURN_LINES);
+
+    // ========== --shared-calls: one global call and return routine, emitted by writeInit.
+    // labels start with '$', which no VM function name does
+    // D = return address, R13 = callee, R14 = nArgs
+    private static final byte[] CALL_ROUTINE = AsmOutput.ascii("($CALL)\n@SP\nA=M\nM=D\n"
+            // push LCL/ARG...
+            + "@LCL\nD=M\n@SP\nAM=M+1\nM=D\n"
+            + "@ARG\nD=M\n@SP\nAM=M+1\nM=D\n"
+            + "@THIS\nD=M\n@SP\nAM=M+1\nM=D\n"
+            + "@THAT\nD=M\n@SP\nAM=M+1\nM=D\n"
+            // SP++, LCL = SP, ARG = SP-(5+nArgs)
+            + "@SP\nMD=M+1\n@LCL\nM=D\n@R14\nD=D-M\n@5\nD=D-A\n@ARG\nM=D\n"
+            // goto R13
+            + "@R13\nA=M\n0;JMP\n");
+    private static final byte[] RETURN_ROUTINE = AsmOutput.ascii("($RETURN)\n" + RETURN_LINES);
+    private static final byte[] NL_D_EQ_A_LET_R13 = AsmOutput.ascii("\nD=A\n@R13\nM=D\n@");
+    private static final byte[] NL_D_EQ_A_LET_R14 = AsmOutput.ascii("\nD=A\n@R14\nM=D\n@");
+    private static final byte[] NL_D_EQ_A_GOTO_CALL = AsmOutput.ascii("\nD=A\n@$CALL\n0;JMP\n(");
+    private static final byte[] GOTO_RETURN = AsmOutput.ascii("@$RETURN\n0;JMP\n");
+
+    // ========== --shared-compare: one routine per comparison kind, emitted by writeInit for the kinds
+    // of compareRoutines. D = return address, use R15 to keep it
+    private static final byte[][] COMPARE_ROUTINES = {AsmOutput.ascii(compareRoutine("EQ")),
+            AsmOutput.ascii(compareRoutine("LT")), AsmOutput.ascii(compareRoutine("GT"))};
+    // the words of one routine, and those a site saves by calling it instead of the inline sequence
+    private static final int COMPARE_ROUTINE_SIZE = 16;
+    private static final int COMPARE_SITE_SAVING = 14;
+    // Peephole already drops the SP round-trips of the inline sequence
+    private static final int PEEPHOLE_COMPARE_SITE_SAVING = 7;
+    private static final byte[] NL_D_EQ_A_GOTO_EQ = AsmOutput.ascii("\nD=A\n@$EQ\n0;JMP\n(");
+    private static final byte[] NL_D_EQ_A_GOTO_LT = AsmOutput.ascii("\nD=A\n@$LT\n0;JMP\n(");
+    private static final byte[] NL_D_EQ_A_GOTO_GT = AsmOutput.ascii("\nD=A\n@$GT\n0;JMP\n(");
+
+    // ========== --tail-calls: call f n; return reuses the frame of the caller, through one routine
+    // emitted by writeInit if the program has such a call.
+    // D = nArgs, R15 = callee; the n args and the saved frame of the current function
+    // are copied down to ARG, then LCL = SP = ARG+n+5, so the callee returns to our caller
+    private static final byte[] TAIL_CALL_ROUTINE = AsmOutput.ascii("($TAILCALL)\n@R14\nM=D\n"
+            // the frame stays where it is if ARG+n+5 == LCL, the common self-recursive case
+            + "@ARG\nD=M\n@R14\nD=D+M\n@5\nD=D+A\n@LCL\nD=D-M\n@$TAILCALL_MOVE\nD;JNE\n"
+            // R13 = SP-n, SP = ARG, copy the args up from R13
+            + "@R14\nD=M\n@SP\nD=M-D\n@R13\nM=D\n@ARG\nD=M\n@SP\nM=D\n"
+            + "@R14\nD=M\n@$TAILCALL_KEEP\nD;JEQ\n"
+            + "($TAILCALL_ARGS)\n@R13\nM=M+1\nA=M-1\nD=M\n@SP\nM=M+1\nA=M-1\nM=D\n"
+            + "@R14\nMD=M-1\n@$TAILCALL_ARGS\nD;JGT\n"
+            + "($TAILCALL_KEEP)\n@LCL\nD=M\n@SP\nM=D\n@R15\nA=M\n0;JMP\n"
+            // else the new frame may overlap both the old one and the args:
+            // push *(LCL-5)..*(LCL-1) above the args, then copy these n+5 words down to ARG, LCL as the pointer
+            + "($TAILCALL_MOVE)\n@5\nD=A\n@R13\nM=D\n"
+            + "($TAILCALL_FRAME)\n@R13\nD=M\n@LCL\nA=M-D\nD=M\n@SP\nAM=M+1\nA=A-1\nM=D\n"
+            + "@R13\nMD=M-1\n@$TAILCALL_FRAME\nD;JGT\n"
+            + "@5\nD=A\n@R14\nMD=D+M\n@SP\nD=M-D\n@R13\nM=D\n@ARG\nD=M\n@LCL\nM=D\n"
+            + "($TAILCALL_COPY)\n@R13\nM=M+1\nA=M-1\nD=M\n@LCL\nM=M+1\nA=M-1\nM=D\n"
+            + "@R14\nMD=M-1\n@$TAILCALL_COPY\nD;JGT\n"
+            + "@LCL\nD=M\n@SP\nM=D\n@R15\nA=M\n0;JMP\n");
+    private static final byte[] NL_D_EQ_A_LET_R15 = AsmOutput.ascii("\nD=A\n@R15\nM=D\n");
+    private static final byte[] NL_D_EQ_A_GOTO_TAIL_CALL = AsmOutput.ascii("\nD=A\n@$TAILCALL\n0;JMP\n");
+
+    final AsmOutput out;
+    final Options opts;
     private String currHackClassName;
-    private String currFuncName;
+    private byte[] currFuncName;
     private int currCallReturnCount;
+    int currCompareCount;
+    // with --shared-compare or --pgo, the eq, lt, gt with a routine, see compareRoutines(); null for none
+    boolean[] compareRoutines;
+    // with --tail-calls, a file of the program has a tail call, see hasTailCall()
+    boolean tailCallRoutine;
+    // null without --metrics, see mark() and counted()
+    Metrics metrics;
+    private long markInstructions;
+    private long markBytes;
+    // null without --source-map, see markSource()
+    SourceMap sourceMap;
+    // null without --pgo, see sharedCalls()
+    Pgo pgo;
+    // the commands being written run hot in the profile of --pgo
+    private boolean hot;
+
+    // write into out, like an in-memory buffer of a single .vm file
+    public CodeWriter(AsmOutput out, Options opts) {
+        this.out = out;
+        this.opts = opts;
+        currCallReturnCount = 0;
+    }
 
-    public CodeWriter(File f) {
-        try {
-            out = new FileOutputStream(f);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    public void writeInit() {
+        mark();
+        if (sourceMap != null)
+            out.mark(sourceMap.command(null, 0, Metrics.BOOTSTRAP, Metrics.BOOTSTRAP));
+        out.put(INIT_SP);
+        writeCall(SYS_INIT, 0);
+        // Sys.init never returns, so the routines can follow its call
+        final boolean compares = compareRoutines != null && sharedCompare();
+        if (sourceMap != null && (sharedCalls() || compares || tailCallRoutine))
+            out.mark(sourceMap.command(null, 0, Metrics.ROUTINES, Metrics.ROUTINES));
+        if (sharedCalls())
+            out.put(CALL_ROUTINE).put(RETURN_ROUTINE);
+        for (int k = 0; compares && k < COMPARE_ROUTINES.length; k++) {
+            if (compareRoutines[k])
+                out.put(COMPARE_ROUTINES[k]);
         }
-        currCallReturnCount = 0;
+        if (tailCallRoutine)
+            out.put(TAIL_CALL_ROUTINE);
+        counted(Metrics.BOOTSTRAP, Metrics.BOOTSTRAP, 0);
+    }
+
+    /**
+     * the eq, lt, gt of program, by compareKind(), with enough sites for their routine to save ROM.
+     * a site is a compare not fused into a branch, and with --pgo a cold one; the others stay inline
+     */
+    boolean[] compareRoutines(VmFile[] program) {
+        int[] sites = new int[COMPARE_ROUTINES.length];
+        for (VmFile file : program) {
+            for (VmFunction f : file.functions()) {
+                for (int i = 0; i < f.size(); i++) {
+                    if (f.op(i).isCompare() && compareBranchLength(f, i) == 0
+                            && (pgo == null || !pgo.hot(file.className + ".vm", f.line(i))))
+                        sites[compareKind(f.op(i))]++;
+                }
+            }
+        }
+        final int saving = compareSiteSaving();
+        boolean[] routines = new boolean[sites.length];
+        for (int k = 0; k < sites.length; k++)
+            routines[k] = saving > 0 && sites[k] * saving > COMPARE_ROUTINE_SIZE;
+        return routines;
+    }
+
+    // the words a site saves by calling the routine of its compare
+    int compareSiteSaving() {
+        return opts.peephole ? PEEPHOLE_COMPARE_SITE_SAVING : COMPARE_SITE_SAVING;
     }
 
-    public void writeInit() throws IOException{
-        String lines = "@256\nD=A\n@SP\nM=D\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
-        writeCall("Sys.init", "0");
+    // 0, 1, 2 for eq, lt, gt
+    private static int compareKind(Op op) {
+        return op == Op.EQ ? 0 : op == Op.LT ? 1 : 2;
     }
 
-    public void setClassName(String name) {
+    // labels are namespaced per file and function, so each file can be translated on its own
+    private void setClassName(String name) {
         currHackClassName = name;
+        currFuncName = null;
+        currCallReturnCount = 0;
+        currCompareCount = 0;
     }
 
-    public void write(Command command) {
-        try {
-            switch (command.type) {
-                case ARITHMETIC:
-                    writeArithmetic(command.name);
-                    break;
-                case PUSH:
-                    writePush(command.arg1, command.arg2);
-                    break;
-                case POP:
-                    writePop(command.arg1, command.arg2);
-                    break;
-                case BRANCHING:
-                    writeBranching(command.name, command.arg1);
-                    break;
-                case METHOD:
-                    writeMethod(command);
-                    break;
-                default:
-                    throw new IllegalStateException("Unexpected type: " + command.type);
+    // a whole .vm file
+    public void write(VmFile file) {
+        setClassName(file.className);
+        for (VmFunction f : file.functions()) {
+            final String function = metrics == null && sourceMap == null ? null
+                    : f.name == VmFunction.NO_NAME ? file.className : file.symbols.name(f.name);
+            if (f.name != VmFunction.NO_NAME) {
+                mark();
+                if (sourceMap != null)
+                    out.mark(sourceMap.command(file.className + ".vm", f.line, function,
+                            Op.FUNCTION.text + ' ' + function + ' ' + f.nLocals));
+                writeFunc(file.symbols.bytes(f.name), f.nLocals, f.nZeroed);
+                counted(Op.FUNCTION.text, function, 1);
+            }
+            for (int i = 0; i < f.size(); ) {
+                mark();
+                if (sourceMap != null)
+                    markSource(file, function, f, i);
+                hot = pgo != null && pgo.hot(file.className + ".vm", f.line(i));
+                final int n = writeCommands(file.symbols, f, i);
+                if (metrics != null)
+                    counted(kind(f, i, n), function, n);
+                i += n;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        mark();
+        hot = false;
+        if (sourceMap != null)
+            out.mark(sourceMap.command(file.className + ".vm", 0, file.className, Metrics.END_OF_FILE));
+        endFile();
+        counted(Metrics.END_OF_FILE, file.className, 0);
+    }
+
+    /**
+     * write the command at i, along with the next ones it is emitted with
+     * @return the number of commands written
+     */
+    private int writeCommands(Symbols symbols, VmFunction f, int i) {
+        final int n = length(f, i);
+        // eq/lt/gt [not] if-goto jumps on x - y, without the -1/0 in between
+        if (f.op(i).isCompare() && n > 1)
+            writeCompareBranch(f.op(i), n == 3, symbols.bytes(f.label(i + n - 1)));
+        else if (n == 2)
+            writeTailCall(symbols.bytes(f.label(i)), f.index(i));
+        else
+            write(symbols, f, i);
+        return n;
+    }
+
+    // the number of commands written together from i
+    private int length(VmFunction f, int i) {
+        final int fused = compareBranchLength(f, i);
+        if (fused > 0)
+            return fused;
+        return opts.tailCalls && isTailCall(f, i) ? 2 : 1;
+    }
+
+    // like push, or eq not if-goto for the n commands written together
+    private static String kind(VmFunction f, int i, int n) {
+        StringBuilder kind = new StringBuilder(f.op(i).text);
+        for (int j = i + 1; j < i + n; j++)
+            kind.append(' ').append(f.op(j).text);
+        return kind.toString();
+    }
+
+    // ========== --metrics, nothing is done if metrics is null
+    private void mark() {
+        if (metrics == null)
+            return;
+        markInstructions = out.instructions();
+        markBytes = out.bytes();
+    }
+
+    // what was emitted since mark()
+    private void counted(String kind, String function, int commands) {
+        if (metrics != null)
+            metrics.count(kind, function, commands, out.instructions() - markInstructions, out.bytes() - markBytes);
+    }
+
+    // ========== --pgo: the shared routines are there for the cold commands, a hot one gets its inline sequence.
+    // the profile alone decides, over --shared-calls and --shared-compare
+    boolean sharedCalls() {
+        return pgo != null ? !hot && pgo.coldCalls() : opts.sharedCalls;
+    }
+
+    boolean sharedCompare() {
+        return pgo != null ? !hot && pgo.coldCompares() : opts.sharedCompare;
+    }
+
+    // op goes through its routine, assume op.isCompare()
+    boolean sharedCompare(Op op) {
+        return compareRoutines != null && compareRoutines[compareKind(op)] && sharedCompare();
+    }
+
+    // ========== --source-map
+    // the asm from now on belongs to the commands written together from i, at the line of the first
+    private void markSource(VmFile file, String function, VmFunction f, int i) {
+        StringBuilder text = new StringBuilder();
+        for (int j = i, n = length(f, i); j < i + n; j++)
+            file.appendCommand(j == i ? text : text.append("; "), f, j);
+        out.mark(sourceMap.command(file.className + ".vm", f.line(i), function, text.toString()));
+    }
+
+    // 2 for eq/lt/gt if-goto, 3 for eq/lt/gt not if-goto at i, 0 if neither
+    private static int compareBranchLength(VmFunction f, int i) {
+        if (!f.op(i).isCompare() || i + 1 == f.size())
+            return 0;
+        if (f.op(i + 1) == Op.IF_GOTO)
+            return 2;
+        if (f.op(i + 1) == Op.NOT && i + 2 < f.size() && f.op(i + 2) == Op.IF_GOTO)
+            return 3;
+        return 0;
+    }
+
+    // file has a call f n; return, after the passes that run before it is written
+    static boolean hasTailCall(VmFile file) {
+        for (VmFunction f : file.functions()) {
+            for (int i = 0; i < f.size(); i++) {
+                if (isTailCall(f, i))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    // call f n; return inside a function, the commands before any function have no frame to reuse
+    private static boolean isTailCall(VmFunction f, int i) {
+        return f.name != VmFunction.NO_NAME && f.op(i) == Op.CALL && i + 1 < f.size() && f.op(i + 1) == Op.RETURN;
+    }
+
+    private void write(Symbols symbols, VmFunction f, int i) {
+        final Op op = f.op(i);
+        switch (op) {
+            case PUSH:
+                writePush(f.segment(i), f.index(i));
+                break;
+            case POP:
+                writePop(f.segment(i), f.index(i));
+                break;
+            case LABEL:
+            case GOTO:
+            case IF_GOTO:
+                writeBranching(op, symbols.bytes(f.label(i)));
+                break;
+            case CALL:
+                writeCall(symbols.bytes(f.label(i)), f.index(i));
+                break;
+            case RETURN:
+                writeReturn();
+                break;
+            case FUNCTION:
+                throw new IllegalStateException("Unexpected op: " + op);
+            default:
+                writeArithmetic(op);
+        }
+    }
+
+    // the end of a .vm file, all state is written to the Hack machine
+    void endFile() {
     }
 
     @Override
@@ -70,257 +413,369 @@ public class CodeWriter implements Closeable {
         out.close();
     }
 
-    private void writePush(String seg, String i) throws IOException {
-        if (Command.COMMON_SEGMENT.containsKey(seg)) {
-            letGoSPEqGoAddr(seg, i);
-            incrSP();
-        } else if (seg.equals("constant")) {
-            // *SP = i
-            String lines = "@" + i + "\nD=A\n@SP\nA=M\nM=D\n";
-            out.write(lines.getBytes(OUT_FILE_CHARSET));
-            incrSP();
-        } else if (seg.equals("static")) {
-            // *SP = @Xxx.i
-            letGoLabelXEqAtY("SP", currHackClassName + "." + i);
-            incrSP();
-        } else if (seg.equals("temp")) {
-            int addr = 5 + Integer.parseInt(i);
-            letGoLabelXEqAtY("SP", String.valueOf(addr));
-            incrSP();
-        } else if (seg.equals("pointer")) {
-            if (i.equals("0")) {
-                // "0" = this = R[3]
-                letGoLabelXEqAtY("SP", "R3");
-            } else if (i.equals("1")) {
-                // "1" = that = R[4]
-                letGoLabelXEqAtY("SP", "R4");
-            } else throw new IllegalArgumentException("pointer i = " + i);
-            incrSP();
-        } else throw new IllegalArgumentException("seg = " + seg);
-    }
-
-    private void writePop(String seg, String i) throws IOException {
-        if (Command.COMMON_SEGMENT.containsKey(seg)) {
-            if (i.equals("0")) {
-                String label = Command.COMMON_SEGMENT.get(seg);
-                // SP--, *label=*SP
-                String lines = "@SP\nAM=M-1\nD=M\n@" + label + "\nA=M\nM=D\n";
-                out.write(lines.getBytes(OUT_FILE_CHARSET));
-            } else {
-                letR13EqAddr(seg, i);
-                decrSPAndLetGoLabelXEqGoSP("R13");
-            }
+    void writePush(Segment seg, int i) {
+        switch (seg) {
+            case LOCAL:
+            case ARGUMENT:
+            case THIS:
+            case THAT:
+                letGoSPEqGoAddr(seg, i);
+                incrSP();
+                break;
+            case CONSTANT:
+                // *SP = i
+                if (i == -1) {
+                    out.put(LET_GO_SP_EQ_MINUS_1);
+                } else if (i == 0) {
+                    out.put(LET_GO_SP_EQ_0);
+                } else if (i == 1) {
+                    out.put(LET_GO_SP_EQ_1);
+                } else {
+                    letDEqConstant(i);
+                    out.put(LET_GO_SP_EQ_D);
+                }
+                incrSP();
+                break;
+            case STATIC:
+                // *SP = @Xxx.i
+                atStatic(i);
+                letGoSPEqM();
+                incrSP();
+                break;
+            case TEMP:
+                out.put('@').putInt(5 + i);
+                letGoSPEqM();
+                incrSP();
+                break;
+            case POINTER:
+                atPointer(i);
+                letGoSPEqM();
+                incrSP();
+                break;
+            default:
+                throw new IllegalArgumentException("seg = " + seg);
+        }
+    }
 
-        } else if (seg.equals("static")) {
-            // SP--, @Xxx.i = *SP
-            decrSPAndLetAtXEqGoSP(currHackClassName + "." + i);
-        } else if (seg.equals("temp")) {
-            int addr = 5 + Integer.parseInt(i);
-            // SP--, @5+i = *SP
-            decrSPAndLetAtXEqGoSP(String.valueOf(addr));
-        } else if (seg.equals("pointer")) {
-            if (i.equals("0")) { // "0" = this = R[3]
-                // SP--, @R3 = *SP
-                decrSPAndLetAtXEqGoSP("R3");
-            } else if (i.equals("1")) { // "1" = that = R[4]
-                // SP--, @R4 = *SP
-                decrSPAndLetAtXEqGoSP("R4");
-            } else throw new IllegalArgumentException("pointer i = " + i);
-        } else throw new IllegalArgumentException("seg = " + seg);
-    }
-
-    private void writeArithmetic(String name) throws IOException {
-        if (Command.BINARY_OPERATIONS.containsKey(name)) {
-            writeBinaryOperation(name);
-        } else if (name.equals("neg") || name.equals("not")) {
-            writeUnaryOperation(name);
-        } else if (Command.COMPARE_OPERATIONS.containsKey(name)) {
-            writeCompareOperation(name);
-        } else throw new IllegalArgumentException("command.name =" + name);
-
-    }
-
-    private void writeBranching(String name, String label) throws IOException {
-        if (currFuncName != null)
-            label = currFuncName + '$' + label;
-        String lines;
-        switch (name) {
-            case "label":
-                lines = "(" + label + ")\n";
+    void writePop(Segment seg, int i) {
+        switch (seg) {
+            case LOCAL:
+            case ARGUMENT:
+            case THIS:
+            case THAT:
+                if (i == 0) {
+                    // SP--, *label=*SP
+                    out.put(DECR_SP_LET_D).put('@').put(seg.label).put(NL_A_EQ_M_M_EQ_D);
+                } else {
+                    letR13EqAddr(seg, i);
+                    // SP--, *R13 = *SP
+                    out.put(DECR_SP_LET_D).put(LET_GO_R13_EQ_D);
+                }
+                break;
+            case STATIC:
+                // SP--, @Xxx.i = *SP
+                out.put(DECR_SP_LET_D);
+                atStatic(i);
+                out.put(NL_M_EQ_D);
                 break;
-            case "if-goto":
-                lines = "@SP\nAM=M-1\nD=M\n@" + label + "\nD;JNE\n";
+            case TEMP:
+                // SP--, @5+i = *SP
+                out.put(DECR_SP_LET_D).put('@').putInt(5 + i).put(NL_M_EQ_D);
                 break;
-            case "goto":
-                lines = "@" + label + "\n0;JMP\n";
+            case POINTER:
+                // SP--, @R3 = *SP or @R4 = *SP
+                out.put(DECR_SP_LET_D);
+                atPointer(i);
+                out.put(NL_M_EQ_D);
                 break;
             default:
-                throw new IllegalArgumentException("command.name =" + name);
+                throw new IllegalArgumentException("seg = " + seg);
         }
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
     }
 
-    private void writeMethod(Command command) throws IOException {
-        switch (command.name) {
-            case "call":
-                writeCall(command.arg1, command.arg2);
-                ++currCallReturnCount;
+    void writeArithmetic(Op op) {
+        if (op.isBinary()) {
+            writeBinaryOperation(op);
+        } else if (op.isUnary()) {
+            writeUnaryOperation(op);
+        } else if (op.isCompare()) {
+            writeCompareOperation(op);
+        } else throw new IllegalArgumentException("op = " + op);
+    }
+
+    void writeBranching(Op op, byte[] label) {
+        switch (op) {
+            case LABEL:
+                out.put('(');
+                putLabel(label);
+                out.put(CLOSE_LABEL);
                 break;
-            case "function":
-                currFuncName = command.arg1;
-                currCallReturnCount = 0;
-                writeFunc(command.arg1, command.arg2);
+            case IF_GOTO:
+                out.put(DECR_SP_LET_D).put('@');
+                putLabel(label);
+                out.put(NL_D_JNE);
                 break;
-            case "return":
-                writeReturn();
+            case GOTO:
+                out.put('@');
+                putLabel(label);
+                out.put(NL_JMP);
                 break;
             default:
-                throw new IllegalArgumentException("command.name =" + command.name);
+                throw new IllegalArgumentException("op = " + op);
         }
     }
 
-    private void writeCall(String calledFuncName, String nArgs) throws IOException {
-        String returnAddrLabel = currFuncName + "$ret." + currCallReturnCount;
-        String lines = "@" + returnAddrLabel + "\nD=A\n@SP\nA=M\nM=D\n"
-                // push LCL/ARG...
-                + "@LCL\nD=M\n@SP\nAM=M+1\nM=D\n"
-                + "@ARG\nD=M\n@SP\nAM=M+1\nM=D\n"
-                + "@THIS\nD=M\n@SP\nAM=M+1\nM=D\n"
-                + "@THAT\nD=M\n@SP\nAM=M+1\nM=D\n"
-                // SP++, ARG = SP-(5+nArgs)
-                + "@" + (5+Integer.parseInt(nArgs))
-                + "\nD=A\n@SP\nM=M+1\nD=M-D\n@ARG\nM=D\n"
-                + "@SP\nD=M\n@LCL\nM=D\n"
-                + "@" + calledFuncName + "\n0;JMP\n"
-                + "(" + returnAddrLabel + ")\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
-    }
-
-    // assume currFuncName is updated to funcName
-    private void writeFunc(String funcName, String mVar) throws IOException {
-        StringBuilder lines = new StringBuilder("(" + funcName + ")\n");
-        int m = Integer.parseInt(mVar);
-        if (m != 0) {
-            for (int i = 0; i < m; i++) {
-                if (i == 0) lines.append("@SP\nA=M\nM=0\n");
-                else lines.append("M=0\n");
-                lines.append("@SP\nAM=M+1\n");
-            }
+    /**
+     * pop y, pop x, if (x op y) goto label, or if !(x op y) when negated
+     * assume op.isCompare()
+     */
+    void writeCompareBranch(Op op, boolean negated, byte[] label) {
+        out.put(COMPARE_BRANCH_HEAD);
+        putLabel(label);
+        out.put(branchJump(op, negated));
+    }
+
+    // D;Jxx on D = x - y
+    static byte[] branchJump(Op op, boolean negated) {
+        switch (op) {
+            case EQ:
+                return negated ? NL_D_JNE : JEQ;
+            case LT:
+                return negated ? NL_D_JGE : JLT;
+            default:
+                return negated ? NL_D_JLE : JGT;
         }
-        out.write(lines.toString().getBytes(OUT_FILE_CHARSET));
     }
 
-    // set R13 as endFrame and R14 as retAddr
-    private void writeReturn() throws IOException {
-        // R13 = LCL; R14 = *(R13-5)
-        String lines = "@LCL\nD=M\n@R13\nM=D\n@5\nD=A\n@R13\nA=M-D\nD=M\n@R14\nM=D\n"
-                // *ARG=pop() => *ARG=*(--SP)
-                + "@SP\nAM=M-1\nD=M\n@ARG\nA=M\nM=D\n"
-                // SP = ARG + 1
-                + "@ARG\nD=M\n@SP\nM=D+1\n"
-                // THAT = *(R13-1)
-                + "@R13\nA=M-1\nD=M\n@THAT\nM=D\n"
-                // R13--; THIS = *(R13-1) # THAT = *(R13-2)
-                + "@R13\nM=M-1\nA=M-1\nD=M\n@THIS\nM=D\n"
-                + "@R13\nM=M-1\nA=M-1\nD=M\n@ARG\nM=D\n"
-                + "@R13\nM=M-1\nA=M-1\nD=M\n@LCL\nM=D\n"
-                // goto R14
-                + "@R14\nA=M\n0;JMP\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
+    void writeCall(byte[] calledFuncName, int nArgs) {
+        if (sharedCalls()) {
+            writeSharedCall(calledFuncName, nArgs);
+            return;
+        }
+        out.put('@');
+        putReturnAddrLabel();
+        out.put(CALL_SAVE_FRAME).putInt(5 + nArgs).put(CALL_REPOSITION).put(calledFuncName).put(NL_JMP).put('(');
+        putReturnAddrLabel();
+        out.put(CLOSE_LABEL);
+        ++currCallReturnCount;
+    }
+
+    // m locals, the first zeroed of them set to 0
+    void writeFunc(byte[] funcName, int m, int zeroed) {
+        currFuncName = funcName;
+        currCallReturnCount = 0;
+        currCompareCount = 0;
+        out.put('(').put(funcName).put(CLOSE_LABEL);
+        for (int i = 0; i < zeroed; i++) {
+            out.put(i == 0 ? INIT_FIRST_LOCAL : INIT_NEXT_LOCAL);
+        }
+        // the others only move SP
+        final int rest = m - zeroed;
+        if (rest > MAX_SP_INCREMENTS) {
+            out.put('@').putInt(rest).put(NL_D_EQ_A).put(SP_PLUS_D);
+        } else if (rest > 0) {
+            out.put(AT_SP);
+            for (int i = 0; i < rest; i++)
+                out.put(M_EQ_M_PLUS_1);
+        }
+    }
+
+    // R13 = callee, R14 = nArgs, D = return address, goto $CALL
+    private void writeSharedCall(byte[] calledFuncName, int nArgs) {
+        out.put('@').put(calledFuncName).put(NL_D_EQ_A_LET_R13).putInt(nArgs).put(NL_D_EQ_A_LET_R14);
+        putReturnAddrLabel();
+        out.put(NL_D_EQ_A_GOTO_CALL);
+        putReturnAddrLabel();
+        out.put(CLOSE_LABEL);
+        ++currCallReturnCount;
+    }
+
+    void writeReturn() {
+        out.put(sharedCalls() ? GOTO_RETURN : RETURN);
+    }
+
+    // call calledFuncName nArgs; return, R15 = callee, D = nArgs, goto $TAILCALL
+    void writeTailCall(byte[] calledFuncName, int nArgs) {
+        out.put('@').put(calledFuncName).put(NL_D_EQ_A_LET_R15).put('@').putInt(nArgs).put(NL_D_EQ_A_GOTO_TAIL_CALL);
     }
 
     // ========== helper methods: asm basic blocks
-    private void incrSP() throws IOException {
-        out.write("@SP\nM=M+1\n".getBytes(OUT_FILE_CHARSET));
+    private void incrSP() {
+        out.put(INCR_SP);
+    }
+
+    // currFuncName$label, or label outside of any function
+    void putLabel(byte[] label) {
+        if (currFuncName != null)
+            out.put(currFuncName).put('$');
+        out.put(label);
+    }
+
+    // currFuncName$ret.i, Xxx$ret.i outside of any function, $bootstrap$ret.i before any file
+    private void putReturnAddrLabel() {
+        if (currFuncName != null)
+            out.put(currFuncName);
+        else if (currHackClassName != null)
+            out.put(currHackClassName);
+        else
+            out.put(BOOTSTRAP_NAME);
+        out.put(RET_LABEL_INFIX).putInt(currCallReturnCount);
     }
 
     /**
-     * assume Command.COMMON_SEGMENT.containsKey(seg)
+     * D = i, -32768 <= i <= 32767
+     * a negative i, like one from ConstantFolder, is loaded as !(~i)
+     */
+    void letDEqConstant(int i) {
+        if (i == -1)
+            out.put(D_EQ_MINUS_1);
+        else if (i == 0)
+            out.put(D_EQ_0);
+        else if (i == 1)
+            out.put(D_EQ_1);
+        else if (i > 0)
+            out.put('@').putInt(i).put(NL_D_EQ_A);
+        else
+            out.put('@').putInt(~i).put(NL_D_EQ_NOT_A);
+    }
+
+    // @Xxx.i
+    void atStatic(int i) {
+        out.put('@').put(currHackClassName).put('.').putInt(i);
+    }
+
+    // "0" = this = R[3], "1" = that = R[4]
+    void atPointer(int i) {
+        if (i == 0) out.put(AT_R3);
+        else if (i == 1) out.put(AT_R4);
+        else throw new IllegalArgumentException("pointer i = " + i);
+    }
+
+    /**
+     * assume seg.isCommon()
      * use R13 as address temp variable
      * R13 = *seg_label + i, like R13 = *LCL + i
      */
-    private void letR13EqAddr(String seg, String i) throws IOException {
-        String label = Command.COMMON_SEGMENT.get(seg);
+    private void letR13EqAddr(Segment seg, int i) {
         // D=i, D=D+*label, *R13=D
-        String lines = "@" + i + "\nD=A\n@" + label + "\nD=D+M\n@R13\nM=D\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
+        out.put('@').putInt(i).put(NL_D_EQ_A).put('@').put(seg.label).put(NL_D_EQ_D_PLUS_M_LET_R13);
     }
 
     /**
-     * assume Command.COMMON_SEGMENT.containsKey(seg)
+     * assume seg.isCommon()
      * *SP=*(seg_label + i)
      */
-    private void letGoSPEqGoAddr(String seg, String i) throws IOException {
-        String label = Command.COMMON_SEGMENT.get(seg);
-        String lines;
-        if (i.equals("0")) {
+    private void letGoSPEqGoAddr(Segment seg, int i) {
+        if (i == 0) {
             // *SP = *label
-            lines = "@" + label + "\nA=M\nD=M\n@SP\nA=M\nM=D\n";
+            out.put('@').put(seg.label).put(NL_A_EQ_M_D_EQ_M).put(LET_GO_SP_EQ_D);
         } else {
             // D=i, A=D+@label, *SP=M
-            lines = "@" + i + "\nD=A\n@" + label + "\nA=D+M\nD=M\n@SP\nA=M\nM=D\n";
+            out.put('@').putInt(i).put(NL_D_EQ_A).put('@').put(seg.label)
+                    .put(NL_A_EQ_D_PLUS_M_D_EQ_M).put(LET_GO_SP_EQ_D);
         }
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
-    }
-
-
-    // SP--, *labelX = *SP
-    private void decrSPAndLetGoLabelXEqGoSP(String labelX) throws IOException {
-        String lines = "@SP\nAM=M-1\nD=M\n@" + labelX + "\nA=M\nM=D\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
     }
 
-    // *labelX=@Y like *SP = @Xxx.i
-    private void letGoLabelXEqAtY(String labelX, String Y) throws IOException {
-        String lines = "@" + Y + "\nD=M\n@" + labelX + "\nA=M\nM=D\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
+    // *SP = M, after @Y like @Xxx.i
+    private void letGoSPEqM() {
+        out.put(NL_D_EQ_M).put(LET_GO_SP_EQ_D);
     }
 
+    // ========== Arithmetic blocks
 
-    // sp--, @X = *sp
-    private void decrSPAndLetAtXEqGoSP(String X) throws IOException {
-        String lines = "@SP\nAM=M-1\nD=M\n@" + X + "\nM=D\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
+    // assume op.isBinary()
+    private void writeBinaryOperation(Op op) {
+        final byte[] expression;
+        switch (op) {
+            case ADD:
+                expression = D_PLUS_M;
+                break;
+            case SUB:
+                expression = M_MINUS_D;
+                break;
+            case AND:
+                expression = D_AND_M;
+                break;
+            default:
+                expression = D_OR_M;
+        }
+        out.put(BINARY_OPERATION).put(expression).put(NL_M_EQ_D);
+        incrSP();
     }
 
-    // ========== Arithmetic blocks
+    // assume op.isUnary()
+    private void writeUnaryOperation(Op op) {
+        out.put(op == Op.NEG ? NEG : NOT);
+        incrSP();
+    }
 
-    // assume Command.BINARY_OPERATIONS.containsKey(name)
-    private void writeBinaryOperation(String name) throws IOException {
-        String expression = Command.BINARY_OPERATIONS.get(name);
+    // assume op.isCompare()
+    private void writeCompareOperation(Op op) {
+        if (sharedCompare(op)) {
+            writeSharedCompareOperation(op);
+            return;
+        }
+        final byte[] jumpOperation;
+        switch (op) {
+            case EQ:
+                jumpOperation = JEQ;
+                break;
+            case LT:
+                jumpOperation = JLT;
+                break;
+            default:
+                jumpOperation = JGT;
+        }
 
-        String lines = "@SP\nAM=M-1\nD=M\n@SP\nAM=M-1\nD=" + expression
-                + "\nM=D\n@SP\nM=M+1\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
+        out.put(COMPARE_HEAD);
+        putCompareLabel();
+        out.put(jumpOperation).put(PUSH_FALSE_AND_JUMP);
+        putCompareLabel();
+        out.put(END_COMPARE_LABEL_SUFFIX).put(NL_JMP).put('(');
+        putCompareLabel();
+        out.put(PUSH_TRUE).put('(');
+        putCompareLabel();
+        // incrSP;
+        out.put(END_COMPARE_LABEL_SUFFIX).put(END_COMPARE);
+        ++currCompareCount;
     }
 
-    // assume name is "neg" or "not"
-    private void writeUnaryOperation(String name) throws IOException {
-        char symbol;
-        if (name.equals("neg"))
-            symbol = '-';
-        else if (name.equals("not"))
-            symbol = '!';
-        else throw new IllegalArgumentException("command.name =" + name);
+    // D = return address, goto $EQ/$LT/$GT
+    private void writeSharedCompareOperation(Op op) {
+        final byte[] gotoRoutine;
+        switch (op) {
+            case EQ:
+                gotoRoutine = NL_D_EQ_A_GOTO_EQ;
+                break;
+            case LT:
+                gotoRoutine = NL_D_EQ_A_GOTO_LT;
+                break;
+            default:
+                gotoRoutine = NL_D_EQ_A_GOTO_GT;
+        }
+        out.put('@');
+        putCompareLabel();
+        out.put(gotoRoutine);
+        putCompareLabel();
+        out.put(CLOSE_LABEL);
+        ++currCompareCount;
+    }
 
-        String lines = "@SP\nAM=M-1\nM=" + symbol + "M\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
-        incrSP();
+    // currFuncName$$cmp.i, or Xxx$$cmp.i outside of any function, with .end for the end of the compare
+    void putCompareLabel() {
+        if (currFuncName != null)
+            out.put(currFuncName);
+        else
+            out.put(currHackClassName);
+        out.put(COMPARE_LABEL_INFIX).putInt(currCompareCount);
     }
 
-    // assume Command.COMPARE_OPERATIONS.containsKey(name)
-    private void writeCompareOperation(String name) throws IOException {
-        String pushTrueLabel = currHackClassName.toUpperCase() + "_PUSH_TURE_" + staticCount;
-        String jumpOperation = Command.COMPARE_OPERATIONS.get(name);
-        String endOfCompareLabel = currHackClassName.toUpperCase() + "_END_COMP_" + staticCount;
-        ++staticCount;
-
-        String lines = "@SP\nAM=M-1\nD=M\n@SP\nAM=M-1\nD=M-D\n@" + pushTrueLabel +
-                "\nD;" + jumpOperation +
-                "\n@SP\nA=M\nM=0\n@" + endOfCompareLabel + "\n0;JMP\n("
-                + pushTrueLabel + ")\n@SP\nA=M\nM=-1\n(" + endOfCompareLabel
-                // incrSP;
-                + ")\n@SP\nM=M+1\n";
-        out.write(lines.getBytes(OUT_FILE_CHARSET));
+    // jump is EQ, LT or GT; *(SP-2) = *(SP-2) jump *(SP-1) ? -1 : 0, SP--, goto R15
+    private static String compareRoutine(String jump) {
+        return "($" + jump + ")\n@R15\nM=D\n"
+                + "@SP\nAM=M-1\nD=M\nA=A-1\nD=M-D\nM=-1\n"
+                + "@$" + jump + "_END\nD;J" + jump + "\n"
+                + "@SP\nA=M-1\nM=0\n"
+                + "($" + jump + "_END)\n@R15\nA=M\n0;JMP\n";
     }
 }
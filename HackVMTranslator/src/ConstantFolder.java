@@ -0,0 +1,117 @@
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --fold: constant folding over the VM stack code of each function.
+ * an op whose operands were just pushed as constants is replaced by a push constant of the result,
+ * so nested constant expressions fold from the inside out. the values wrap around at 16 bits,
+ * and eq/gt/lt compare x - y to 0 like the translated code does, overflow included.
+ * also x+0, x-0, x|0, x&-1, not not, neg neg are dropped,
+ * and if-goto on a constant becomes a goto or nothing
+ */
+public final class ConstantFolder {
+    private ConstantFolder() {
+    }
+
+    /**
+     * fold every function of file
+     * @return the number of commands removed
+     */
+    public static int fold(VmFile file) {
+        int removed = 0;
+        for (int i = 0; i < file.functions().size(); i++) {
+            VmFunction f = file.functions().get(i);
+            VmFunction g = fold(f);
+            removed += f.size() - g.size();
+            file.functions().set(i, g);
+        }
+        return removed;
+    }
+
+    private static VmFunction fold(VmFunction f) {
+        VmFunction g = new VmFunction(f.name, f.nLocals, f.nZeroed, f.line);
+        for (int i = 0; i < f.size(); i++) {
+            final Op op = f.op(i);
+            final int n = g.size();
+            if (op.isBinary() || op.isCompare()) {
+                if (isConstant(g, n - 2) && isConstant(g, n - 1)) {
+                    int value = evaluate(op, g.index(n - 2), g.index(n - 1));
+                    g.truncate(n - 2);
+                    g.add(Op.PUSH, Segment.CONSTANT, value, -1, f.line(i));
+                    continue;
+                }
+                if (isConstant(g, n - 1) && isIdentity(op, g.index(n - 1))) {
+                    g.truncate(n - 1);
+                    continue;
+                }
+            } else if (op.isUnary()) {
+                if (isConstant(g, n - 1)) {
+                    int value = evaluate(op, g.index(n - 1), 0);
+                    g.truncate(n - 1);
+                    g.add(Op.PUSH, Segment.CONSTANT, value, -1, f.line(i));
+                    continue;
+                }
+                // not not, neg neg
+                if (n > 0 && g.op(n - 1) == op) {
+                    g.truncate(n - 1);
+                    continue;
+                }
+            } else if (op == Op.IF_GOTO && isConstant(g, n - 1)) {
+                boolean taken = g.index(n - 1) != 0;
+                g.truncate(n - 1);
+                if (taken)
+                    g.add(Op.GOTO, null, 0, f.label(i), f.line(i));
+                continue;
+            }
+            g.add(op, f.segment(i), f.index(i), f.label(i), f.line(i));
+        }
+        return g;
+    }
+
+    // command i of g is a push constant
+    private static boolean isConstant(VmFunction g, int i) {
+        return i >= 0 && g.op(i) == Op.PUSH && g.segment(i) == Segment.CONSTANT;
+    }
+
+    // x op y == x
+    private static boolean isIdentity(Op op, int y) {
+        switch (op) {
+            case ADD:
+            case SUB:
+            case OR:
+                return y == 0;
+            case AND:
+                return y == -1;
+            default:
+                return false;
+        }
+    }
+
+    // x op y, or op x for neg/not, as a 16-bit signed value
+    static int evaluate(Op op, int x, int y) {
+        switch (op) {
+            case ADD:
+                return (short) (x + y);
+            case SUB:
+                return (short) (x - y);
+            case AND:
+                return (short) (x & y);
+            case OR:
+                return (short) (x | y);
+            case NEG:
+                return (short) -x;
+            case NOT:
+                return (short) ~x;
+            case EQ:
+                return (short) (x - y) == 0 ? -1 : 0;
+            case GT:
+                return (short) (x - y) > 0 ? -1 : 0;
+            case LT:
+                return (short) (x - y) < 0 ? -1 : 0;
+            default:
+                throw new IllegalArgumentException("op = " + op);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+import java.util.Arrays;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * the Hack CPU with 32K words of ROM and RAM, run headless to count the cycles of translated code.
+ * the ROM is decoded once on load into ints the run loop switches on:
+ * an A instruction is its value, >= 0;
+ * a C instruction is negative, with the dense ALU op of its comp, whether it reads M, dest and jump.
+ * the halt loop (L) @L 0;JMP decodes to HALT, the ROM past the program to END,
+ * so the loop checks neither the ROM bounds nor for a halt.
+ * one instruction is one cycle, the jump of a halt loop included
+ */
+public class Cpu {
+    public static final int MEMORY_SIZE = 1 << 15;
+    public static final int SCREEN = 0x4000;
+    public static final int KBD = 0x6000;
+
+    // SCREEN and KBD, a stub for a program that draws or reads keys
+    public interface Io {
+        int read(int address);
+
+        void write(int address, int value);
+    }
+
+    // why run() returned
+    public enum Stop { HALT, END, LIMIT }
+
+    // the fields of a decoded C instruction
+    private static final int C_FLAG = 1 << 31;
+    private static final int READS_M = 1 << 16;
+    private static final int OP_SHIFT = 8;
+    private static final int DEST_SHIFT = 3;
+    private static final int DEST_M = 1 << DEST_SHIFT;
+    private static final int DEST_D = 2 << DEST_SHIFT;
+    private static final int DEST_A = 4 << DEST_SHIFT;
+
+    // dense ALU ops
+    static final int ZERO = 0, ONE = 1, MINUS_ONE = 2, D = 3, A = 4, NOT_D = 5, NOT_A = 6,
+            NEG_D = 7, NEG_A = 8, D_PLUS_1 = 9, A_PLUS_1 = 10, D_MINUS_1 = 11, A_MINUS_1 = 12,
+            D_PLUS_A = 13, D_MINUS_A = 14, A_MINUS_D = 15, D_AND_A = 16, D_OR_A = 17,
+            M = 18, NOT_M = 19, NEG_M = 20, M_PLUS_1 = 21, M_MINUS_1 = 22,
+            D_PLUS_M = 23, D_MINUS_M = 24, M_MINUS_D = 25, D_AND_M = 26, D_OR_M = 27,
+            GENERIC = 28, HALT_OP = 29, END_OP = 30;
+    // a + c1..c6 -> ALU op, GENERIC for a comp the assembler never emits, run through the bits of the ALU
+    static final int[] OPS = new int[128];
+    private static final int HALT = C_FLAG | HALT_OP << OP_SHIFT;
+    private static final int END = C_FLAG | END_OP << OP_SHIFT;
+
+    static {
+        Arrays.fill(OPS, GENERIC);
+        int[][] comps = {
+                {0b101010, ZERO}, {0b111111, ONE}, {0b111010, MINUS_ONE}, {0b001100, D}, {0b110000, A},
+                {0b001101, NOT_D}, {0b110001, NOT_A}, {0b001111, NEG_D}, {0b110011, NEG_A},
+                {0b011111, D_PLUS_1}, {0b110111, A_PLUS_1}, {0b001110, D_MINUS_1}, {0b110010, A_MINUS_1},
+                {0b000010, D_PLUS_A}, {0b010011, D_MINUS_A}, {0b000111, A_MINUS_D},
+                {0b000000, D_AND_A}, {0b010101, D_OR_A},
+                {0b1110000, M}, {0b1110001, NOT_M}, {0b1110011, NEG_M}, {0b1110111, M_PLUS_1},
+                {0b1110010, M_MINUS_1}, {0b1000010, D_PLUS_M}, {0b1010011, D_MINUS_M}, {0b1000111, M_MINUS_D},
+                {0b1000000, D_AND_M}, {0b1010101, D_OR_M},
+        };
+        for (int[] comp : comps)
+            OPS[comp[0]] = comp[1];
+        // the comps without y don't care about the a bit
+        for (int c = 0; c < 64; c++) {
+            if (OPS[c] <= NEG_D && OPS[c] != A && OPS[c] != NOT_A)
+                OPS[0x40 | c] = OPS[c];
+        }
+    }
+
+    public final short[] ram = new short[MEMORY_SIZE];
+    // one more END, for a pc run past the last word
+    private final int[] rom = new int[MEMORY_SIZE + 1];
+    // the raw words, for GENERIC
+    private final short[] words = new short[MEMORY_SIZE];
+    private final int size;
+    private Io io;
+
+    public int pc;
+    public int a;
+    public int d;
+    public long cycles;
+
+    // words are the machine words of the ROM, like HackEncoder.words()
+    public Cpu(int[] words) {
+        if (words.length > MEMORY_SIZE)
+            throw new IllegalArgumentException("the program has " + words.length + " words, the ROM " + MEMORY_SIZE);
+        size = words.length;
+        Arrays.fill(rom, END);
+        for (int i = 0; i < size; i++) {
+            this.words[i] = (short) words[i];
+            rom[i] = decode(words, i);
+        }
+    }
+
+    // the number of words of the program
+    public int size() {
+        return size;
+    }
+
+    // route SCREEN and KBD through io, null for plain RAM
+    public void io(Io io) {
+        this.io = io;
+    }
+
+    // back to the state of power on, the RAM aside
+    public void reset() {
+        pc = a = d = 0;
+        cycles = 0;
+    }
+
+    private static int decode(int[] words, int i) {
+        final int word = words[i];
+        if ((word & 0x8000) == 0)
+            return word;
+        final int jump = word & 7;
+        final int dest = word >> 3 & 7;
+        if (isHalt(words, i))
+            return HALT;
+        final int readsM = (word & 0x1000) != 0 ? READS_M : 0;
+        return C_FLAG | readsM | OPS[word >> 6 & 0x7F] << OP_SHIFT | dest << DEST_SHIFT | jump;
+    }
+
+    // words[i] is the jump of a halt loop (L) @L 0;JMP
+    static boolean isHalt(int[] words, int i) {
+        final int word = words[i];
+        return (word & 0x8000) != 0 && (word & 0x3F) == 7 && i > 0 && words[i - 1] == i - 1;
+    }
+
+    /**
+     * run up to a halt loop, the end of the program or maxCycles more cycles
+     * @return why it stopped
+     */
+    public Stop run(long maxCycles) {
+        final int[] rom = this.rom;
+        final short[] ram = this.ram;
+        final Io io = this.io;
+        final long limit = maxCycles > Long.MAX_VALUE - cycles ? Long.MAX_VALUE : cycles + maxCycles;
+        int pc = this.pc;
+        int a = this.a;
+        int d = this.d;
+        long n = cycles;
+        Stop stop = Stop.LIMIT;
+        run:
+        while (n < limit) {
+            final int op = rom[pc];
+            n++;
+            if (op >= 0) {
+                a = op;
+                pc++;
+                continue;
+            }
+            final int address = a & 0x7FFF;
+            if (io != null && (op & READS_M) != 0 && address >= SCREEN)
+                ram[address] = (short) io.read(address);
+            final int out;
+            switch (op >> OP_SHIFT & 0xFF) {
+                case ZERO:
+                    out = 0;
+                    break;
+                case ONE:
+                    out = 1;
+                    break;
+                case MINUS_ONE:
+                    out = -1;
+                    break;
+                case D:
+                    out = d;
+                    break;
+                case A:
+                    out = a;
+                    break;
+                case NOT_D:
+                    out = ~d;
+                    break;
+                case NOT_A:
+                    out = ~a;
+                    break;
+                case NEG_D:
+                    out = (short) -d;
+                    break;
+                case NEG_A:
+                    out = (short) -a;
+                    break;
+                case D_PLUS_1:
+                    out = (short) (d + 1);
+                    break;
+                case A_PLUS_1:
+                    out = (short) (a + 1);
+                    break;
+                case D_MINUS_1:
+                    out = (short) (d - 1);
+                    break;
+                case A_MINUS_1:
+                    out = (short) (a - 1);
+                    break;
+                case D_PLUS_A:
+                    out = (short) (d + a);
+                    break;
+                case D_MINUS_A:
+                    out = (short) (d - a);
+                    break;
+                case A_MINUS_D:
+                    out = (short) (a - d);
+                    break;
+                case D_AND_A:
+                    out = d & a;
+                    break;
+                case D_OR_A:
+                    out = d | a;
+                    break;
+                case M:
+                    out = ram[address];
+                    break;
+                case NOT_M:
+                    out = ~ram[address];
+                    break;
+                case NEG_M:
+                    out = (short) -ram[address];
+                    break;
+                case M_PLUS_1:
+                    out = (short) (ram[address] + 1);
+                    break;
+                case M_MINUS_1:
+                    out = (short) (ram[address] - 1);
+                    break;
+                case D_PLUS_M:
+                    out = (short) (d + ram[address]);
+                    break;
+                case D_MINUS_M:
+                    out = (short) (d - ram[address]);
+                    break;
+                case M_MINUS_D:
+                    out = (short) (ram[address] - d);
+                    break;
+                case D_AND_M:
+                    out = d & ram[address];
+                    break;
+                case D_OR_M:
+                    out = d | ram[address];
+                    break;
+                case GENERIC:
+                    out = alu(words[pc] >> 6 & 0x3F, d, (op & READS_M) != 0 ? ram[address] : a);
+                    break;
+                case HALT_OP:
+                    stop = Stop.HALT;
+                    break run;
+                default:
+                    // END isn't an instruction
+                    n--;
+                    stop = Stop.END;
+                    break run;
+            }
+            if ((op & DEST_M) != 0) {
+                ram[address] = (short) out;
+                if (io != null && address >= SCREEN)
+                    io.write(address, out);
+            }
+            if ((op & DEST_A) != 0)
+                a = out;
+            if ((op & DEST_D) != 0)
+                d = out;
+            // JLT, JEQ, JGT are the bits 4, 2, 1 of jump
+            if ((op & 7) != 0 && (op & (out < 0 ? 4 : out == 0 ? 2 : 1)) != 0)
+                pc = address;
+            else
+                pc++;
+        }
+        this.pc = pc;
+        this.a = a;
+        this.d = d;
+        cycles = n;
+        return stop;
+    }
+
+    // c1..c6 on x = D and y = A/M, like the ALU chip
+    private static int alu(int c, int x, int y) {
+        if ((c & 0x20) != 0) x = 0;
+        if ((c & 0x10) != 0) x = ~x;
+        if ((c & 0x08) != 0) y = 0;
+        if ((c & 0x04) != 0) y = ~y;
+        int out = (c & 0x02) != 0 ? x + y : x & y;
+        if ((c & 0x01) != 0) out = ~out;
+        return (short) out;
+    }
+}
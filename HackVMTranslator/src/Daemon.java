@@ -0,0 +1,131 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --watch: stay up in a warm JVM and rebuild the output on each change of a .vm file.
+ * the fragment of each file is kept in memory, keyed by its content like FragmentCache,
+ * so a rebuild translates only the changed files and merges the others as they are.
+ * requests come from a WatchService on the input dir and from stdin, one per line:
+ * build to rebuild now, quit to stop
+ */
+public class Daemon {
+    // an editor saves a file in a few events, they make one rebuild
+    private static final long SETTLE_MILLIS = 20;
+    private static final String CHANGE = "";
+    private static final String BUILD = "build";
+    private static final String QUIT = "quit";
+
+    private final Options opts;
+    private final Translator.FrontEnd frontEnd;
+    private final FragmentCache fragments;
+    private final BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+
+    public Daemon(Options opts, Translator.FrontEnd frontEnd) throws IOException {
+        this.opts = opts;
+        this.frontEnd = frontEnd;
+        // in front of the dir of --cache if there is one
+        fragments = new FragmentCache(opts.cache ? opts.cacheDir() : null, opts.codegenKey(), true);
+    }
+
+    public void run() throws IOException, InterruptedException {
+        final File dir = opts.input.isDirectory() ? opts.input : opts.input.getAbsoluteFile().getParentFile();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            dir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            start("watch", () -> watch(watcher));
+            start("stdin", this::readStdin);
+            build();
+            System.out.println("watching " + dir + ", commands: " + BUILD + ", " + QUIT);
+            while (true) {
+                String request = requests.take();
+                // the events of the same save
+                for (String next; (next = requests.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null; ) {
+                    if (!next.equals(CHANGE))
+                        request = next;
+                }
+                if (request.equals(QUIT))
+                    return;
+                if (request.equals(CHANGE) || request.equals(BUILD))
+                    build();
+                else
+                    System.out.println("unknown command: " + request + ", commands: " + BUILD + ", " + QUIT);
+            }
+        }
+    }
+
+    // a failed build is reported, the next change may fix it
+    private void build() {
+        final long start = System.nanoTime();
+        try {
+            if (!opts.input.exists()) {
+                System.out.println("Fail to open the file/dir: " + opts.input);
+                return;
+            }
+            new Translator(opts, frontEnd, fragments).run();
+            System.out.printf("built in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            System.out.println("build failed: " + e.getMessage());
+        }
+    }
+
+    private void watch(WatchService watcher) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // an overflow has no file name, it may be anything
+                    Object name = event.context();
+                    if (name == null || isInput(((Path) name).toString()))
+                        requests.add(CHANGE);
+                }
+                if (!key.reset())
+                    return;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    // a .vm file of the dir, or the input file itself
+    private boolean isInput(String name) {
+        return opts.input.isDirectory() ? name.endsWith(".vm") : name.equals(opts.input.getName());
+    }
+
+    // stdin may be closed from the start, the daemon then only watches
+    private void readStdin() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                line = line.trim();
+                if (!line.isEmpty())
+                    requests.add(line);
+            }
+        } catch (IOException e) {
+            System.out.println("stdin: " + e.getMessage());
+        }
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
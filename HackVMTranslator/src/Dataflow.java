@@ -0,0 +1,105 @@
+import java.util.ArrayDeque;
+import java.util.BitSet;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * worklist solver of bit-vector dataflow problems over a Cfg, like Liveness and ReachingDefinitions.
+ * the transfer of a block is gen | (x - kill), the meet is the union,
+ * so the solution is the least fixed point
+ */
+public final class Dataflow {
+    // per block, at its first and past its last command
+    public final BitSet[] in;
+    public final BitSet[] out;
+
+    private Dataflow(int nBlocks) {
+        in = new BitSet[nBlocks];
+        out = new BitSet[nBlocks];
+        for (int b = 0; b < nBlocks; b++) {
+            in[b] = new BitSet();
+            out[b] = new BitSet();
+        }
+    }
+
+    /**
+     * in[b] = entry for the first block | out of the predecessors, out[b] = gen[b] | (in[b] - kill[b])
+     */
+    public static Dataflow forward(Cfg cfg, BitSet[] gen, BitSet[] kill, BitSet entry) {
+        final int n = cfg.size();
+        Dataflow d = new Dataflow(n);
+        if (n == 0)
+            return d;
+        boolean[] queued = new boolean[n];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        for (int b = 0; b < n; b++) {
+            work.add(b);
+            queued[b] = true;
+        }
+        while (!work.isEmpty()) {
+            final int b = work.poll();
+            queued[b] = false;
+            BitSet x = d.in[b];
+            if (b == 0)
+                x.or(entry);
+            for (int p : cfg.predecessors(b))
+                x.or(d.out[p]);
+            if (!transfer(x, gen[b], kill[b], d.out[b]))
+                continue;
+            for (int s : cfg.successors(b)) {
+                if (!queued[s]) {
+                    work.add(s);
+                    queued[s] = true;
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * out[b] = exit[b] | in of the successors, in[b] = gen[b] | (out[b] - kill[b])
+     * @param exit what flows out of the function from b, null entries for none
+     */
+    public static Dataflow backward(Cfg cfg, BitSet[] gen, BitSet[] kill, BitSet[] exit) {
+        final int n = cfg.size();
+        Dataflow d = new Dataflow(n);
+        boolean[] queued = new boolean[n];
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        for (int b = n - 1; b >= 0; b--) {
+            work.add(b);
+            queued[b] = true;
+        }
+        while (!work.isEmpty()) {
+            final int b = work.poll();
+            queued[b] = false;
+            BitSet x = d.out[b];
+            if (exit[b] != null)
+                x.or(exit[b]);
+            for (int s : cfg.successors(b))
+                x.or(d.in[s]);
+            if (!transfer(x, gen[b], kill[b], d.in[b]))
+                continue;
+            for (int p : cfg.predecessors(b)) {
+                if (!queued[p]) {
+                    work.add(p);
+                    queued[p] = true;
+                }
+            }
+        }
+        return d;
+    }
+
+    // result = gen | (x - kill), false if it didn't change; the sets only grow
+    private static boolean transfer(BitSet x, BitSet gen, BitSet kill, BitSet result) {
+        BitSet next = (BitSet) x.clone();
+        next.andNot(kill);
+        next.or(gen);
+        if (next.equals(result))
+            return false;
+        result.or(next);
+        return true;
+    }
+}
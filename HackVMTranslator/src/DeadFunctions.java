@@ -0,0 +1,111 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * whole-program pass for --dead-functions: the call graph is built from the call commands of all files,
+ * and only the functions reachable from Sys.init are kept.
+ * the commands before any function are always kept, and so are the functions they call.
+ * the Hack instructions saved are those of CodeWriter before and after, without the passes over the asm
+ */
+public final class DeadFunctions {
+    private static final String ENTRY = "Sys.init";
+
+    private DeadFunctions() {
+    }
+
+    /**
+     * drop the unreachable functions from program
+     * @param opts of the translation, to count the Hack instructions saved
+     * @return report of what is dropped
+     */
+    public static String eliminate(VmFile[] program, Options opts) {
+        // function name -> its file, names are per-file symbol ids
+        Map<String, VmFile> files = new HashMap<>();
+        Map<String, VmFunction> functions = new HashMap<>();
+        int nFunctions = 0;
+        int nCommands = 0;
+        for (VmFile file : program) {
+            for (VmFunction f : file.functions()) {
+                nCommands += commands(f);
+                if (f.name == VmFunction.NO_NAME)
+                    continue;
+                nFunctions++;
+                String name = file.symbols.name(f.name);
+                files.put(name, file);
+                functions.put(name, f);
+            }
+        }
+        if (!functions.containsKey(ENTRY))
+            return "dead functions: no " + ENTRY + ", nothing dropped";
+
+        Set<String> reachable = new HashSet<>();
+        ArrayDeque<String> work = new ArrayDeque<>();
+        reachable.add(ENTRY);
+        work.add(ENTRY);
+        for (VmFile file : program) {
+            for (VmFunction f : file.functions()) {
+                if (f.name == VmFunction.NO_NAME)
+                    addCallees(file.symbols, f, reachable, work);
+            }
+        }
+        while (!work.isEmpty()) {
+            String name = work.poll();
+            VmFunction f = functions.get(name);
+            // a call to a function no file defines is left to fail in the assembler
+            if (f != null)
+                addCallees(files.get(name).symbols, f, reachable, work);
+        }
+
+        int droppedFunctions = 0;
+        int droppedCommands = 0;
+        long droppedInstructions = 0;
+        for (VmFile file : program) {
+            final int before = droppedFunctions;
+            for (VmFunction f : file.functions()) {
+                if (f.name != VmFunction.NO_NAME && !reachable.contains(file.symbols.name(f.name))) {
+                    droppedFunctions++;
+                    droppedCommands += commands(f);
+                }
+            }
+            if (droppedFunctions == before)
+                continue;
+            droppedInstructions += instructions(file, opts);
+            file.functions().removeIf(f -> f.name != VmFunction.NO_NAME
+                    && !reachable.contains(file.symbols.name(f.name)));
+            droppedInstructions -= instructions(file, opts);
+        }
+        return "dead functions: dropped " + droppedFunctions + " of " + nFunctions + " functions, "
+                + droppedCommands + " of " + nCommands + " commands, " + droppedInstructions + " Hack instructions";
+    }
+
+    private static void addCallees(Symbols symbols, VmFunction f, Set<String> reachable, ArrayDeque<String> work) {
+        for (int i = 0; i < f.size(); i++) {
+            if (f.op(i) == Op.CALL) {
+                String callee = symbols.name(f.label(i));
+                if (reachable.add(callee))
+                    work.add(callee);
+            }
+        }
+    }
+
+    // the Hack instructions of file, written into a scratch buffer
+    private static long instructions(VmFile file, Options opts) {
+        AsmOutput out = new AsmOutput();
+        out.countLines();
+        (opts.stackCache ? new StackCacheWriter(out, opts) : new CodeWriter(out, opts)).write(file);
+        return out.instructions();
+    }
+
+    // the function command and the body
+    private static int commands(VmFunction f) {
+        return f.size() + (f.name == VmFunction.NO_NAME ? 0 : 1);
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --dead-stores: per-function pass over a Cfg with Liveness and ReachingDefinitions of the Slots.
+ * a push of a slot whose reaching definitions all store the same constant becomes a push constant,
+ * the locals the function command sets start as 0. then a pop to a slot nobody reads later is dropped
+ * with the pushes and arithmetic that computed its value, and pop x; push x drops both when x isn't read after.
+ * repeats until nothing changes. thread-safe, the stats are summed over all the files
+ */
+public final class DeadStores {
+    // a function converges in a few rounds, this only bounds a pathological one
+    private static final int MAX_ROUNDS = 8;
+
+    private final AtomicLong functions = new AtomicLong();
+    private final AtomicLong blocks = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong propagated = new AtomicLong();
+    private final AtomicLong cfgNanos = new AtomicLong();
+    private final AtomicLong livenessNanos = new AtomicLong();
+    private final AtomicLong reachingNanos = new AtomicLong();
+    private final AtomicLong rewriteNanos = new AtomicLong();
+
+    // rewrite every function of file
+    public void run(VmFile file) {
+        for (int i = 0; i < file.functions().size(); i++) {
+            VmFunction f = file.functions().get(i);
+            VmFunction g = optimize(f);
+            removed.addAndGet(f.size() - g.size());
+            file.functions().set(i, g);
+        }
+    }
+
+    public String report() {
+        return "dead stores: removed " + removed.get() + " commands, " + propagated.get() + " pushes made constant, "
+                + functions.get() + " functions, " + blocks.get() + " blocks; cfg " + millis(cfgNanos)
+                + ", liveness " + millis(livenessNanos) + ", reaching definitions " + millis(reachingNanos)
+                + ", rewrite " + millis(rewriteNanos);
+    }
+
+    private VmFunction optimize(VmFunction f) {
+        functions.incrementAndGet();
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            long t = System.nanoTime();
+            Cfg cfg = new Cfg(f);
+            t = lap(cfgNanos, t);
+            if (round == 0)
+                blocks.addAndGet(cfg.size());
+            ReachingDefinitions reach = new ReachingDefinitions(cfg);
+            t = lap(reachingNanos, t);
+            VmFunction g = propagate(cfg, reach);
+            t = lap(rewriteNanos, t);
+
+            if (g != f) {
+                cfg = new Cfg(g);
+                t = lap(cfgNanos, t);
+            }
+            Liveness live = new Liveness(cfg);
+            t = lap(livenessNanos, t);
+            VmFunction h = eliminate(cfg, live);
+            lap(rewriteNanos, t);
+            if (h == f)
+                break;
+            f = h;
+        }
+        return f;
+    }
+
+    // the pushes of a slot with a known constant value, f itself if there is none
+    private VmFunction propagate(Cfg cfg, ReachingDefinitions reach) {
+        final VmFunction f = cfg.function;
+        VmFunction g = null;
+        for (int i = 0; i < f.size(); i++) {
+            final int slot = f.op(i) == Op.PUSH ? Slots.of(f.segment(i), f.index(i)) : -1;
+            final Integer value = slot < 0 ? null : constant(cfg, reach, slot, i);
+            if (value != null && g == null) {
+                g = new VmFunction(f.name, f.nLocals, f.nZeroed, f.line);
+                for (int j = 0; j < i; j++)
+                    g.add(f.op(j), f.segment(j), f.index(j), f.label(j), f.line(j));
+            }
+            if (g == null)
+                continue;
+            if (value != null) {
+                g.add(Op.PUSH, Segment.CONSTANT, value, -1, f.line(i));
+                propagated.incrementAndGet();
+            } else {
+                g.add(f.op(i), f.segment(i), f.index(i), f.label(i), f.line(i));
+            }
+        }
+        return g == null ? f : g;
+    }
+
+    // the value of slot at command i if every definition reaching it stores the same constant, else null
+    private static Integer constant(Cfg cfg, ReachingDefinitions reach, int slot, int i) {
+        final VmFunction f = cfg.function;
+        BitSet defs = reach.reaching(slot, i);
+        // none reaches an unreachable command
+        if (defs.isEmpty())
+            return null;
+        Integer value = null;
+        for (int d = defs.nextSetBit(0); d >= 0; d = defs.nextSetBit(d + 1)) {
+            final int v;
+            if (reach.isEntry(d)) {
+                if (slot < Slots.LOCAL || slot - Slots.LOCAL >= f.nZeroed)
+                    return null;
+                v = 0;
+            } else if (Slots.def(f, d) == slot && d > cfg.start(cfg.blockOf(d)) && f.op(d - 1) == Op.PUSH
+                    && f.segment(d - 1) == Segment.CONSTANT) {
+                v = f.index(d - 1);
+            } else {
+                return null;
+            }
+            if (value != null && value != v)
+                return null;
+            value = v;
+        }
+        return value;
+    }
+
+    // f without its dead stores, f itself if there is none
+    private static VmFunction eliminate(Cfg cfg, Liveness live) {
+        final VmFunction f = cfg.function;
+        final int n = f.size();
+        boolean[] dead = new boolean[n];
+        boolean any = false;
+        for (int i = 0; i < n; i++) {
+            final int slot = Slots.def(f, i);
+            if (slot < 0)
+                continue;
+            if (!live.isLiveAfter(slot, i)) {
+                final int from = producer(cfg, i, dead);
+                if (from < 0)
+                    continue;
+                for (int j = from; j <= i; j++)
+                    dead[j] = true;
+                any = true;
+            } else if (i + 1 < n && f.op(i + 1) == Op.PUSH && f.segment(i + 1) == f.segment(i)
+                    && f.index(i + 1) == f.index(i) && !live.isLiveAfter(slot, i + 1)) {
+                // pop x; push x leaves the value on the stack
+                dead[i] = dead[i + 1] = true;
+                any = true;
+                i++;
+            }
+        }
+        if (!any)
+            return f;
+        VmFunction g = new VmFunction(f.name, f.nLocals, f.nZeroed, f.line);
+        for (int i = 0; i < n; i++) {
+            if (!dead[i])
+                g.add(f.op(i), f.segment(i), f.index(i), f.label(i), f.line(i));
+        }
+        return g;
+    }
+
+    /**
+     * @return the first of the pushes and arithmetic right before command i of the same block
+     * that compute the value i pops, -1 if something else computes it. a command already dead,
+     * like the push of a dropped pop x; push x, no longer computes anything
+     */
+    private static int producer(Cfg cfg, int i, boolean[] dead) {
+        final VmFunction f = cfg.function;
+        final int start = cfg.start(cfg.blockOf(i));
+        // values still needed from the commands before j
+        int need = 1;
+        for (int j = i - 1; j >= start; j--) {
+            if (dead[j])
+                return -1;
+            final Op op = f.op(j);
+            if (op == Op.PUSH)
+                need--;
+            else if (op.isBinary() || op.isCompare())
+                need++;
+            else if (!op.isUnary())
+                return -1;
+            if (need == 0)
+                return j;
+        }
+        return -1;
+    }
+
+    private static long lap(AtomicLong total, long since) {
+        final long now = System.nanoTime();
+        total.addAndGet(now - since);
+        return now;
+    }
+
+    private static String millis(AtomicLong nanos) {
+        return String.format("%.2f ms", nanos.get() / 1e6);
+    }
+}
@@ -0,0 +1,229 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * runs the output of the translator on Cpu and reports the exact cycle count.
+ * loads Xxx.asm through HackEncoder, or the machine code of Xxx.hack or Xxx.bin.
+ * SCREEN and KBD are plain RAM, a key is never down. --jit runs the hot code through Jit,
+ * --profile samples the VM call stack through Profiler every --interval cycles, with the Xxx.map of the program,
+ * --counts writes how often each VM command runs, the profile of Translator --pgo
+ */
+public class Emulator {
+    private static final long DEFAULT_MAX_CYCLES = 1L << 32;
+    // prime, so a sample doesn't fall in the same place of each turn of a loop
+    private static final long DEFAULT_INTERVAL = 10007;
+
+    public static void main(String[] args) throws IOException {
+        File program = null;
+        long maxCycles = DEFAULT_MAX_CYCLES;
+        int repeat = 1;
+        List<int[]> sets = new ArrayList<>();
+        int dumpFrom = 0;
+        int dumpTo = -1;
+        boolean jit = false;
+        File folded = null;
+        File counts = null;
+        long interval = DEFAULT_INTERVAL;
+        int top = 10;
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--max-cycles=")) {
+                    maxCycles = Long.parseLong(arg.substring("--max-cycles=".length()));
+                } else if (arg.startsWith("--repeat=")) {
+                    repeat = Integer.parseInt(arg.substring("--repeat=".length()));
+                } else if (arg.startsWith("--set=")) {
+                    sets.add(range(arg.substring("--set=".length())));
+                } else if (arg.equals("--jit")) {
+                    jit = true;
+                } else if (arg.equals("--profile")) {
+                    folded = new File("");
+                } else if (arg.startsWith("--profile=")) {
+                    folded = new File(arg.substring("--profile=".length()));
+                } else if (arg.equals("--counts")) {
+                    counts = new File("");
+                } else if (arg.startsWith("--counts=")) {
+                    counts = new File(arg.substring("--counts=".length()));
+                } else if (arg.startsWith("--interval=")) {
+                    interval = Long.parseLong(arg.substring("--interval=".length()));
+                } else if (arg.startsWith("--top=")) {
+                    top = Integer.parseInt(arg.substring("--top=".length()));
+                } else if (arg.startsWith("--dump=")) {
+                    int[] dump = range(arg.substring("--dump=".length()));
+                    dumpFrom = dump[0];
+                    dumpTo = dump[1];
+                } else if (arg.startsWith("--") || program != null) {
+                    program = null;
+                    break;
+                } else {
+                    program = new File(arg);
+                }
+            }
+        } catch (NumberFormatException e) {
+            program = null;
+        }
+        if (program == null || maxCycles <= 0 || repeat <= 0 || interval <= 0 || top < 0
+                || counts != null && (jit || folded != null)) {
+            System.out.println("usage: Emulator <Xxx.asm | Xxx.hack | Xxx.bin> [--max-cycles=n] [--repeat=n]"
+                    + " [--set=address:value]... [--dump=from:to] [--jit]"
+                    + " [--profile[=Xxx.folded]] [--interval=n] [--top=n] [--counts[=Xxx.counts]]");
+            return;
+        }
+        if (!program.isFile()) {
+            System.out.println("Fail to open the file: " + program);
+            return;
+        }
+        final String base = program.getPath().replaceFirst("\\.(asm|hack|bin)$", "");
+        final File map = new File(base + ".map");
+        if ((folded != null || counts != null) && !map.isFile()) {
+            System.out.println("Fail to open the file: " + map + ", translate with --source-map to profile");
+            return;
+        }
+        if (folded != null && folded.getPath().isEmpty())
+            folded = new File(base + ".folded");
+        if (counts != null && counts.getPath().isEmpty())
+            counts = new File(base + ".counts");
+
+        final int[] words = load(program);
+        Cpu cpu = new Cpu(words);
+        // one Jit for all the runs, so the later ones run on the regions it compiled
+        Jit compiler = jit ? new Jit(cpu, words) : null;
+        Profiler profiler = null;
+        long[] starts = null;
+        Cpu.Stop stop = null;
+        long best = Long.MAX_VALUE;
+        // the runs after the first are on a warm JVM, with its JIT done compiling Cpu.run
+        for (int run = 0; run < repeat; run++) {
+            cpu.reset();
+            Arrays.fill(cpu.ram, (short) 0);
+            for (int[] set : sets)
+                cpu.ram[set[0]] = (short) set[1];
+            // each run counts its own hit rate
+            if (jit)
+                compiler.resetCycles();
+            if (folded != null || counts != null)
+                profiler = new Profiler(map);
+            final long start = System.nanoTime();
+            if (counts != null) {
+                starts = new long[Cpu.MEMORY_SIZE + 1];
+                stop = Profiler.count(cpu, words, maxCycles, starts);
+            } else if (profiler == null) {
+                stop = jit ? compiler.run(maxCycles) : cpu.run(maxCycles);
+            } else {
+                do {
+                    final long before = cpu.cycles;
+                    final long slice = Math.min(interval, maxCycles - before);
+                    stop = jit ? compiler.run(slice) : cpu.run(slice);
+                    profiler.sample(cpu, cpu.cycles - before);
+                } while (stop == Cpu.Stop.LIMIT && cpu.cycles < maxCycles);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(describe(stop) + " after " + cpu.cycles + " cycles, at pc " + cpu.pc
+                + ", rom " + cpu.size() + " words");
+        System.out.printf("%.3f ms, %.1f M instructions/s%n", best / 1e6, cpu.cycles * 1e3 / Math.max(best, 1));
+        if (compiler != null)
+            System.out.println(compiler.report());
+        if (counts != null) {
+            profiler.writeCounts(counts, words, starts, cpu.cycles, stop, sets);
+            System.out.println("counts: " + counts);
+        } else if (profiler != null) {
+            profiler.writeFolded(folded);
+            System.out.print(profiler.top(top));
+        }
+        for (int address = dumpFrom; address <= dumpTo; address++)
+            System.out.println("RAM[" + address + "] = " + cpu.ram[address]);
+    }
+
+    /**
+     * the machine words of program
+     * @param program Xxx.asm, Xxx.hack as lines of '0'/'1', or Xxx.bin as 16-bit little-endian words
+     */
+    public static int[] load(File program) throws IOException {
+        final byte[] bytes = Files.readAllBytes(program.toPath());
+        final String name = program.getName();
+        if (name.endsWith(".bin")) {
+            int[] words = new int[bytes.length / 2];
+            for (int i = 0; i < words.length; i++)
+                words[i] = (bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] & 0xFF) << 8;
+            return words;
+        }
+        if (name.endsWith(".hack")) {
+            List<Integer> words = new ArrayList<>();
+            int word = 0;
+            int bits = 0;
+            for (byte b : bytes) {
+                if (b == '0' || b == '1') {
+                    word = word << 1 | b - '0';
+                    bits++;
+                } else if (b == '\n') {
+                    if (bits != 0 && bits != 16)
+                        throw new IllegalArgumentException("line " + (words.size() + 1) + " has " + bits + " bits");
+                    if (bits == 16)
+                        words.add(word);
+                    word = bits = 0;
+                }
+            }
+            if (bits == 16)
+                words.add(word);
+            return words.stream().mapToInt(Integer::intValue).toArray();
+        }
+        Symbols symbols = new Symbols();
+        HackEncoder encoder = new HackEncoder(symbols);
+        try (AsmOutput asm = new AsmOutput(symbols, encoder)) {
+            asm.put(strip(bytes));
+        }
+        return encoder.words();
+    }
+
+    // the lines of asm without white space and comments, the way HackInstr decodes them
+    private static byte[] strip(byte[] asm) {
+        byte[] lines = new byte[asm.length + 1];
+        int n = 0;
+        for (int i = 0; i < asm.length; i++) {
+            final byte b = asm[i];
+            if (b == '/' && i + 1 < asm.length && asm[i + 1] == '/') {
+                while (i + 1 < asm.length && asm[i + 1] != '\n')
+                    i++;
+            } else if (b == '\n') {
+                if (n > 0 && lines[n - 1] != '\n')
+                    lines[n++] = '\n';
+            } else if (b > ' ') {
+                lines[n++] = b;
+            }
+        }
+        if (n > 0 && lines[n - 1] != '\n')
+            lines[n++] = '\n';
+        return Arrays.copyOf(lines, n);
+    }
+
+    // address:value or from:to
+    static int[] range(String s) {
+        final int colon = s.indexOf(':');
+        if (colon < 0)
+            throw new NumberFormatException(s);
+        final int[] range = {Integer.parseInt(s.substring(0, colon)), Integer.parseInt(s.substring(colon + 1))};
+        if (range[0] < 0 || range[0] >= Cpu.MEMORY_SIZE || range[1] >= Cpu.MEMORY_SIZE)
+            throw new NumberFormatException(s);
+        return range;
+    }
+
+    private static String describe(Cpu.Stop stop) {
+        switch (stop) {
+            case HALT:
+                return "halted";
+            case END:
+                return "ran past the program";
+            default:
+                return "stopped at --max-cycles";
+        }
+    }
+}
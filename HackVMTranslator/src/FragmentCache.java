@@ -0,0 +1,180 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * on-disk cache of the translated fragment of each .vm file, for --cache.
+ * the key is a SHA-256 of the file name, its content and the options that change the asm,
+ * so an unchanged file is never translated again. a hit touches the entry,
+ * evict() drops the entries older than MAX_AGE, then the least recently used ones over MAX_SIZE.
+ * a cache kept in memory, like the one of Daemon, also holds the entries in a map in front of the dir,
+ * and evict() drops the ones the last run didn't use
+ */
+public class FragmentCache {
+    // bump when the asm of the same input and options changes
+    private static final String FORMAT = "2";
+    private static final String SUFFIX = ".asm";
+    private static final long MAX_SIZE = 64L << 20;
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    // null if in memory only
+    private final File dir;
+    private final byte[] optionsKey;
+    // key -> fragment, null if not kept in memory
+    private final Map<String, AsmOutput> memory;
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private int evicted;
+
+    /**
+     * @param optionsKey the options the fragment depends on, like Options.codegenKey()
+     */
+    public FragmentCache(File dir, String optionsKey) throws IOException {
+        this(dir, optionsKey, false);
+    }
+
+    /**
+     * @param dir null to keep the entries in memory only
+     */
+    public FragmentCache(File dir, String optionsKey, boolean inMemory) throws IOException {
+        this.dir = dir;
+        this.optionsKey = AsmOutput.ascii(FORMAT + ' ' + optionsKey);
+        memory = inMemory || dir == null ? new ConcurrentHashMap<>() : null;
+        if (dir != null)
+            Files.createDirectories(dir.toPath());
+    }
+
+    /**
+     * hex SHA-256 of the options, the name and the content of vmFile
+     * @param context what else the fragment depends on, like the compare routines of the whole program
+     * @param content the bytes of vmFile that are parsed, its position is left alone
+     */
+    public String key(File vmFile, String context, ByteBuffer content) {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        sha.update(optionsKey);
+        sha.update((byte) 0);
+        sha.update(vmFile.getName().getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(context.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(content.duplicate());
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : sha.digest())
+            hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    /**
+     * @return the cached fragment, null on a miss
+     */
+    public AsmOutput get(String key) {
+        if (memory != null) {
+            AsmOutput fragment = memory.get(key);
+            if (fragment != null) {
+                hits.incrementAndGet();
+                used.add(key);
+                return fragment;
+            }
+            if (dir == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        File entry = entry(key);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(entry.toPath());
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        // last modified is the last use, for evict()
+        entry.setLastModified(System.currentTimeMillis());
+        AsmOutput fragment = new AsmOutput();
+        fragment.put(bytes);
+        if (memory != null) {
+            memory.put(key, fragment);
+            used.add(key);
+        }
+        return fragment;
+    }
+
+    // written to a temp file and moved, so a concurrent run never reads half an entry
+    public void put(String key, AsmOutput fragment) throws IOException {
+        if (memory != null) {
+            memory.put(key, fragment);
+            used.add(key);
+        }
+        if (dir == null)
+            return;
+        File tmp = File.createTempFile(key, ".tmp", dir);
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(fragment.toByteArray());
+            while (buf.hasRemaining())
+                out.write(buf);
+        }
+        Files.move(tmp.toPath(), entry(key).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void evict() {
+        if (memory != null) {
+            final int before = memory.size();
+            memory.keySet().retainAll(used);
+            used.clear();
+            evicted += before - memory.size();
+        }
+        if (dir == null)
+            return;
+        File[] entries = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (entries == null)
+            return;
+        // newest first
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified).reversed());
+        final long now = System.currentTimeMillis();
+        long size = 0;
+        for (File entry : entries) {
+            if (size + entry.length() <= MAX_SIZE && now - entry.lastModified() <= MAX_AGE)
+                size += entry.length();
+            else if (entry.delete())
+                evicted++;
+        }
+    }
+
+    // since the last report, as a cache kept in memory serves many runs
+    public String report() {
+        String report = "cache: " + hits.getAndSet(0) + " hits, " + misses.getAndSet(0) + " misses, "
+                + evicted + " evicted";
+        evicted = 0;
+        return report;
+    }
+
+    private File entry(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+}
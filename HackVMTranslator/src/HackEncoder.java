@@ -0,0 +1,150 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * last pass: assemble the compact instructions into Hack machine code, without asm text in between.
+ * labels and variables are resolved on close, through a table indexed by symbol id.
+ * writes Xxx.hack as lines of '0'/'1' like the nand2tetris tools,
+ * or packed 16-bit little-endian words like HackAssembler/Assembler.cpp
+ */
+public class HackEncoder implements HackInstr.Sink, Closeable {
+    private static final int FIRST_VARIABLE = 16;
+    private static final int UNRESOLVED = -1;
+    private static final String[] PREDEFINED = {"SP", "LCL", "ARG", "THIS", "THAT"};
+    private static final int SCREEN = 0x4000;
+    private static final int KBD = 0x6000;
+
+    private final Symbols symbols;
+    private final File out;
+    private final boolean binary;
+    // also print the instructions as asm, null if not
+    private final AsmOutput asm;
+    // the marks of --source-map are placed at the ROM address they come before, null if not
+    private final SourceMap sourceMap;
+
+    // the ROM, A_SYMBOL instructions are resolved on close
+    private int[] code = new int[1 << 12];
+    private int size;
+    // symbol id -> address, or UNRESOLVED
+    private int[] addresses = new int[64];
+    private int nextVariable = FIRST_VARIABLE;
+
+    // assemble in memory, for words()
+    public HackEncoder(Symbols symbols) {
+        this(symbols, null, false, null, null);
+    }
+
+    /**
+     * @param out null to only assemble in memory
+     * @param asm also print the asm into it, null if not
+     * @param sourceMap null without --source-map
+     */
+    public HackEncoder(Symbols symbols, File out, boolean binary, AsmOutput asm, SourceMap sourceMap) {
+        this.symbols = symbols;
+        this.out = out;
+        this.binary = binary;
+        this.asm = asm;
+        this.sourceMap = sourceMap;
+        Arrays.fill(addresses, UNRESOLVED);
+        for (int i = 0; i < PREDEFINED.length; i++)
+            define(symbols.intern(PREDEFINED[i]), i);
+        for (int i = 0; i < 16; i++)
+            define(symbols.intern("R" + i), i);
+        define(symbols.intern("SCREEN"), SCREEN);
+        define(symbols.intern("KBD"), KBD);
+    }
+
+    @Override
+    public void accept(int instr) {
+        if (HackInstr.kind(instr) == HackInstr.MARK) {
+            if (sourceMap != null)
+                sourceMap.at(HackInstr.payload(instr), size);
+            return;
+        }
+        if (asm != null)
+            HackInstr.print(instr, symbols, asm);
+        if (HackInstr.kind(instr) == HackInstr.LABEL) {
+            define(HackInstr.payload(instr), size);
+            return;
+        }
+        if (size == code.length)
+            code = Arrays.copyOf(code, size * 2);
+        code[size++] = instr;
+    }
+
+    // everything is held back until close, the labels may be defined later
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sourceMap != null)
+            sourceMap.end(size);
+        final int[] words = words();
+        if (out != null) {
+            try (AsmOutput hack = new AsmOutput(out)) {
+                for (int word : words)
+                    putWord(hack, word);
+            }
+        }
+        if (asm != null)
+            asm.close();
+    }
+
+    // the ROM so far as machine words, a variable gets the next free RAM address at its first use
+    public int[] words() {
+        int[] words = new int[size];
+        for (int i = 0; i < size; i++) {
+            final int instr = code[i];
+            final int word;
+            switch (HackInstr.kind(instr)) {
+                case HackInstr.C:
+                    word = instr & 0xFFFF;
+                    break;
+                case HackInstr.A_CONST:
+                    word = HackInstr.payload(instr);
+                    break;
+                default:
+                    final int id = HackInstr.payload(instr);
+                    if (address(id) == UNRESOLVED)
+                        define(id, nextVariable++);
+                    word = address(id);
+            }
+            if (word > 0x7FFF && HackInstr.kind(instr) != HackInstr.C)
+                throw new IllegalArgumentException(HackInstr.toString(instr, symbols) + " is out of range");
+            words[i] = word;
+        }
+        return words;
+    }
+
+    private void putWord(AsmOutput hack, int word) {
+        if (binary) {
+            hack.put((char) (word & 0xFF)).put((char) (word >>> 8));
+            return;
+        }
+        for (int bit = 15; bit >= 0; bit--)
+            hack.put((word >>> bit & 1) == 0 ? '0' : '1');
+        hack.put('\n');
+    }
+
+    private int address(int id) {
+        return id < addresses.length ? addresses[id] : UNRESOLVED;
+    }
+
+    private void define(int id, int address) {
+        if (id >= addresses.length) {
+            int old = addresses.length;
+            addresses = Arrays.copyOf(addresses, Math.max(old * 2, id + 1));
+            Arrays.fill(addresses, old, addresses.length, UNRESOLVED);
+        }
+        addresses[id] = address;
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * compact int form of one line of Hack asm, the top 4 bits are the kind:
+ * C: low 16 bits are the machine word, like 0xFC10 for D=M
+ * A_CONST: low 15 bits are the value of @value
+ * A_SYMBOL, LABEL: low 28 bits are the id of @symbol or (symbol) in a Symbols pool
+ * MARK: low 28 bits are a SourceMap command id, it is no asm and takes no ROM
+ */
+public final class HackInstr {
+    public static final int C = 0;
+    public static final int A_CONST = 1;
+    public static final int A_SYMBOL = 2;
+    public static final int LABEL = 3;
+    public static final int MARK = 4;
+
+    private static final int PAYLOAD = (1 << 28) - 1;
+
+    // pass of the compact instruction stream, like Peephole
+    public interface Sink {
+        void accept(int instr);
+
+        // pass on everything held back, like at the end of a file
+        void flush() throws IOException;
+    }
+
+    // comp bits (a + c1..c6) to mnemonic, and back through COMP_KEYS/COMP_CODES
+    private static final byte[][] COMP_TEXT = new byte[128][];
+    private static final int[] COMP_KEYS = new int[256];
+    private static final int[] COMP_CODES = new int[256];
+    private static final byte[][] DEST_TEXT = {
+            {}, AsmOutput.ascii("M="), AsmOutput.ascii("D="), AsmOutput.ascii("MD="),
+            AsmOutput.ascii("A="), AsmOutput.ascii("AM="), AsmOutput.ascii("AD="), AsmOutput.ascii("AMD=")};
+    private static final String[] JUMPS = {"", "JGT", "JEQ", "JGE", "JLT", "JNE", "JLE", "JMP"};
+    private static final byte[][] JUMP_TEXT = new byte[8][];
+
+    static {
+        String[][] comps = {
+                {"0", "101010"}, {"1", "111111"}, {"-1", "111010"}, {"D", "001100"},
+                {"A", "110000"}, {"!D", "001101"}, {"!A", "110001"}, {"-D", "001111"},
+                {"-A", "110011"}, {"D+1", "011111"}, {"A+1", "110111"}, {"D-1", "001110"},
+                {"A-1", "110010"}, {"D+A", "000010"}, {"D-A", "010011"}, {"A-D", "000111"},
+                {"D&A", "000000"}, {"D|A", "010101"},
+        };
+        for (String[] comp : comps) {
+            int c = Integer.parseInt(comp[1], 2);
+            addComp(comp[0], c);
+            if (comp[0].indexOf('A') >= 0)
+                addComp(comp[0].replace('A', 'M'), 0x40 | c);
+        }
+        // commutative spellings
+        String[][] aliases = {{"A+D", "D+A"}, {"A&D", "D&A"}, {"A|D", "D|A"}, {"1+D", "D+1"}, {"1+A", "A+1"}};
+        for (String[] alias : aliases) {
+            addCompKey(alias[0], compCode(alias[1]));
+            addCompKey(alias[0].replace('A', 'M'), compCode(alias[1].replace('A', 'M')));
+        }
+        for (int j = 1; j < 8; j++)
+            JUMP_TEXT[j] = AsmOutput.ascii(";" + JUMPS[j]);
+        JUMP_TEXT[0] = new byte[0];
+    }
+
+    private HackInstr() {
+    }
+
+    public static int kind(int instr) {
+        return instr >>> 28;
+    }
+
+    public static int payload(int instr) {
+        return instr & PAYLOAD;
+    }
+
+    public static int aConst(int value) {
+        return A_CONST << 28 | value;
+    }
+
+    public static int aSymbol(int id) {
+        return A_SYMBOL << 28 | id;
+    }
+
+    public static int label(int id) {
+        return LABEL << 28 | id;
+    }
+
+    public static int mark(int id) {
+        return MARK << 28 | id;
+    }
+
+    /**
+     * @param comp mnemonic like "M-D"
+     * @param dest bits of A, D, M, like 0b011 for MD
+     * @param jump 0 for no jump up to 7 for JMP
+     */
+    public static int c(String comp, int dest, int jump) {
+        return 0xE000 | compCode(comp) << 6 | dest << 3 | jump;
+    }
+
+    public static int comp(int instr) {
+        return instr >> 6 & 0x7F;
+    }
+
+    public static int dest(int instr) {
+        return instr >> 3 & 7;
+    }
+
+    public static int jump(int instr) {
+        return instr & 7;
+    }
+
+    public static boolean writesA(int instr) {
+        return kind(instr) != C || (dest(instr) & 4) != 0;
+    }
+
+    public static boolean writesD(int instr) {
+        return kind(instr) == C && (dest(instr) & 2) != 0;
+    }
+
+    public static boolean writesM(int instr) {
+        return kind(instr) == C && (dest(instr) & 1) != 0;
+    }
+
+    /**
+     * decode complete asm lines buf[off, off+len) into sink,
+     * symbols are interned into symbols
+     */
+    public static void decode(byte[] buf, int off, int len, Symbols symbols, Sink sink) {
+        final int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (buf[i] != '\n')
+                continue;
+            if (i > start)
+                sink.accept(decodeLine(buf, start, i, symbols));
+            start = i + 1;
+        }
+    }
+
+    // buf[start, end) is one line without the '\n'
+    private static int decodeLine(byte[] buf, int start, int end, Symbols symbols) {
+        if (buf[start] == '(')
+            return label(symbols.intern(buf, start + 1, end - start - 2));
+        if (buf[start] == '@') {
+            if (buf[start + 1] >= '0' && buf[start + 1] <= '9') {
+                int value = 0;
+                for (int i = start + 1; i < end; i++)
+                    value = value * 10 + buf[i] - '0';
+                return aConst(value);
+            }
+            return aSymbol(symbols.intern(buf, start + 1, end - start - 1));
+        }
+        int compStart = start;
+        int compEnd = end;
+        int dest = 0;
+        int jump = 0;
+        for (int i = start; i < end; i++) {
+            if (buf[i] == '=') {
+                for (int j = start; j < i; j++)
+                    dest |= buf[j] == 'A' ? 4 : buf[j] == 'D' ? 2 : 1;
+                compStart = i + 1;
+            } else if (buf[i] == ';') {
+                compEnd = i;
+                jump = jumpCode(buf, i + 1, end);
+            }
+        }
+        int key = compKey(buf, compStart, compEnd);
+        return 0xE000 | lookupComp(key) << 6 | dest << 3 | jump;
+    }
+
+    public static void print(int instr, Symbols symbols, AsmOutput out) {
+        switch (kind(instr)) {
+            case C:
+                out.put(DEST_TEXT[dest(instr)]).put(COMP_TEXT[comp(instr)]).put(JUMP_TEXT[jump(instr)]);
+                break;
+            case A_CONST:
+                out.put('@').putInt(payload(instr));
+                break;
+            case A_SYMBOL:
+                out.put('@').put(symbols.bytes(payload(instr)));
+                break;
+            default:
+                out.put('(').put(symbols.bytes(payload(instr))).put(')');
+        }
+        out.put('\n');
+    }
+
+    public static String toString(int instr, Symbols symbols) {
+        AsmOutput out = new AsmOutput();
+        print(instr, symbols, out);
+        return new String(out.toByteArray(), 0, out.size() - 1, StandardCharsets.US_ASCII);
+    }
+
+    private static int jumpCode(byte[] buf, int start, int end) {
+        for (int j = 1; j < 8; j++) {
+            String jump = JUMPS[j];
+            if (end - start == 3 && buf[start + 1] == jump.charAt(1) && buf[start + 2] == jump.charAt(2))
+                return j;
+        }
+        throw new IllegalArgumentException("jump = " + new String(buf, start, end - start));
+    }
+
+    private static int compCode(String comp) {
+        byte[] bytes = AsmOutput.ascii(comp);
+        return lookupComp(compKey(bytes, 0, bytes.length));
+    }
+
+    private static void addComp(String comp, int code) {
+        COMP_TEXT[code] = AsmOutput.ascii(comp);
+        addCompKey(comp, code);
+    }
+
+    private static void addCompKey(String comp, int code) {
+        int key = compKey(AsmOutput.ascii(comp), 0, comp.length());
+        int i = key & 0xFF;
+        while (COMP_KEYS[i] != 0)
+            i = (i + 1) & 0xFF;
+        COMP_KEYS[i] = key;
+        COMP_CODES[i] = code;
+    }
+
+    private static int lookupComp(int key) {
+        for (int i = key & 0xFF; COMP_KEYS[i] != 0; i = (i + 1) & 0xFF) {
+            if (COMP_KEYS[i] == key)
+                return COMP_CODES[i];
+        }
+        throw new IllegalArgumentException("comp key = " + Integer.toHexString(key));
+    }
+
+    // comps are 1 to 3 chars, pack them into one int
+    private static int compKey(byte[] buf, int start, int end) {
+        int key = end - start;
+        for (int i = start; i < end; i++)
+            key = key * 131 + buf[i];
+        return key == 0 ? 1 : key;
+    }
+}
@@ -0,0 +1,277 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * whole-program pass for --inline: a call to a small leaf function is replaced by the callee's body.
+ * the args and the callee's locals go to extra locals of the caller, which the function command doesn't set to 0:
+ * the args are popped into them at the call site, and there the callee's locals are set to 0,
+ * but for those the callee writes before it reads them.
+ * the callee's labels are renamed to Xxx$inl.n, which no VM label is, and its returns jump to $inl.n.end.
+ * a leaf calls nothing, so a recursive function is never inlined
+ */
+public final class Inliner {
+    public static final int DEFAULT_MAX_SIZE = 12;
+
+    private static final String LABEL_INFIX = "$inl.";
+
+    // a function that can be inlined
+    private static final class Callee {
+        final VmFile file;
+        final VmFunction body;
+        // argument i is used for i < nArgsUsed
+        final int nArgsUsed;
+        final boolean usesStatic;
+        // pop pointer 0 = bit 0, pop pointer 1 = bit 1; the caller's pointers are saved around the body
+        final int pointerWrites;
+        // a return before the last command, which needs a goto to the end
+        final boolean returnsEarly;
+        // local i is set to 0 at the call site, it may be read before the body writes it
+        final boolean[] zeroed;
+
+        Callee(VmFile file, VmFunction body, int nArgsUsed, boolean usesStatic, int pointerWrites,
+               boolean returnsEarly, boolean[] zeroed) {
+            this.file = file;
+            this.body = body;
+            this.nArgsUsed = nArgsUsed;
+            this.usesStatic = usesStatic;
+            this.pointerWrites = pointerWrites;
+            this.returnsEarly = returnsEarly;
+            this.zeroed = zeroed;
+        }
+
+        // extra locals of the caller for a call with nArgs
+        int frameSize(int nArgs) {
+            return nArgs + body.nLocals + Integer.bitCount(pointerWrites);
+        }
+
+        // static i of the callee is Xxx.i of its own file
+        boolean canInlineInto(VmFile caller, int nArgs) {
+            return nArgs >= nArgsUsed && (!usesStatic || caller.className.equals(file.className));
+        }
+    }
+
+    private Inliner() {
+    }
+
+    /**
+     * inline the calls to the leaf functions of at most maxSize commands in program
+     * @param pgo null, or the profile of --pgo, to inline the hot call sites only
+     * @return report of what is inlined
+     */
+    public static String inline(VmFile[] program, int maxSize, Pgo pgo) {
+        Map<String, Callee> callees = new HashMap<>();
+        for (VmFile file : program) {
+            for (VmFunction f : file.functions()) {
+                Callee callee = analyze(file, f, maxSize);
+                if (callee != null)
+                    callees.put(file.symbols.name(f.name), callee);
+            }
+        }
+        int sites = 0;
+        Set<String> inlined = new HashSet<>();
+        for (VmFile file : program) {
+            for (int i = 0; i < file.functions().size(); i++) {
+                VmFunction f = file.functions().get(i);
+                if (f.name == VmFunction.NO_NAME)
+                    continue;
+                // the sites run one after another, so they share the extra locals
+                int extra = -1;
+                for (int j = 0; j < f.size(); j++) {
+                    Callee callee = calleeAt(file, f, j, callees, pgo);
+                    if (callee != null)
+                        extra = Math.max(extra, callee.frameSize(f.index(j)));
+                }
+                if (extra < 0)
+                    continue;
+                // each site writes the extra locals before it reads them
+                VmFunction g = new VmFunction(f.name, f.nLocals + extra, f.nZeroed, f.line);
+                int site = 0;
+                for (int j = 0; j < f.size(); j++) {
+                    Callee callee = calleeAt(file, f, j, callees, pgo);
+                    if (callee == null) {
+                        g.add(f.op(j), f.segment(j), f.index(j), f.label(j), f.line(j));
+                        continue;
+                    }
+                    expand(file, g, f.nLocals, f.index(j), f.line(j), callee, site++);
+                    inlined.add(file.symbols.name(f.label(j)));
+                }
+                sites += site;
+                file.functions().set(i, g);
+            }
+        }
+        return "inline: " + sites + " call sites of " + inlined.size() + " functions";
+    }
+
+    // the callee if command j of f is a call that can be inlined, or null
+    private static Callee calleeAt(VmFile file, VmFunction f, int j, Map<String, Callee> callees, Pgo pgo) {
+        if (f.op(j) != Op.CALL || pgo != null && !pgo.hot(file.className + ".vm", f.line(j)))
+            return null;
+        Callee callee = callees.get(file.symbols.name(f.label(j)));
+        return callee != null && callee.canInlineInto(file, f.index(j)) ? callee : null;
+    }
+
+    /**
+     * write the body of callee into g, for a call with nArgs
+     * @param base the first extra local of the caller
+     * @param line of the call, the body is mapped to it
+     */
+    private static void expand(VmFile file, VmFunction g, int base, int nArgs, int line, Callee callee, int site) {
+        final VmFunction body = callee.body;
+        final int locals = base + nArgs;
+        // the last arg is on top
+        for (int a = nArgs - 1; a >= 0; a--)
+            g.add(Op.POP, Segment.LOCAL, base + a, -1, line);
+        for (int j = 0; j < body.nLocals; j++) {
+            if (callee.zeroed[j]) {
+                g.add(Op.PUSH, Segment.CONSTANT, 0, -1, line);
+                g.add(Op.POP, Segment.LOCAL, locals + j, -1, line);
+            }
+        }
+        final int saved = locals + body.nLocals;
+        for (int p = 0, s = saved; p < 2; p++) {
+            if ((callee.pointerWrites >> p & 1) != 0) {
+                g.add(Op.PUSH, Segment.POINTER, p, -1, line);
+                g.add(Op.POP, Segment.LOCAL, s++, -1, line);
+            }
+        }
+        final String suffix = LABEL_INFIX + site;
+        final int end = callee.returnsEarly ? file.symbols.intern(suffix + ".end") : -1;
+        for (int i = 0; i < body.size(); i++) {
+            final Op op = body.op(i);
+            switch (op) {
+                case PUSH:
+                case POP:
+                    Segment seg = body.segment(i);
+                    if (seg == Segment.ARGUMENT)
+                        g.add(op, Segment.LOCAL, base + body.index(i), -1, line);
+                    else if (seg == Segment.LOCAL)
+                        g.add(op, Segment.LOCAL, locals + body.index(i), -1, line);
+                    else
+                        g.add(op, seg, body.index(i), -1, line);
+                    break;
+                case LABEL:
+                case GOTO:
+                case IF_GOTO:
+                    g.add(op, null, 0, file.symbols.intern(callee.file.symbols.name(body.label(i)) + suffix), line);
+                    break;
+                case RETURN:
+                    // the return value is left on top
+                    if (i != body.size() - 1)
+                        g.add(Op.GOTO, null, 0, end, line);
+                    break;
+                default:
+                    g.add(op, null, 0, -1, line);
+            }
+        }
+        if (end >= 0)
+            g.add(Op.LABEL, null, 0, end, line);
+        for (int p = 0, s = saved; p < 2; p++) {
+            if ((callee.pointerWrites >> p & 1) != 0) {
+                g.add(Op.PUSH, Segment.LOCAL, s++, -1, line);
+                g.add(Op.POP, Segment.POINTER, p, -1, line);
+            }
+        }
+    }
+
+    /**
+     * @return f as a Callee, null if f isn't a small leaf
+     * whose stack holds exactly the return value at each return
+     */
+    private static Callee analyze(VmFile file, VmFunction f, int maxSize) {
+        if (f.name == VmFunction.NO_NAME || f.size() > maxSize || f.size() == 0)
+            return null;
+        final int n = f.size();
+        Map<Integer, Integer> labels = new HashMap<>();
+        int nArgsUsed = 0;
+        boolean usesStatic = false;
+        int pointerWrites = 0;
+        boolean returnsEarly = false;
+        for (int i = 0; i < n; i++) {
+            final Op op = f.op(i);
+            if (op == Op.CALL)
+                return null;
+            if (op == Op.LABEL)
+                labels.put(f.label(i), i);
+            if (op == Op.RETURN && i != n - 1)
+                returnsEarly = true;
+            if (op != Op.PUSH && op != Op.POP)
+                continue;
+            if (f.segment(i) == Segment.ARGUMENT)
+                nArgsUsed = Math.max(nArgsUsed, f.index(i) + 1);
+            else if (f.segment(i) == Segment.STATIC)
+                usesStatic = true;
+            else if (f.segment(i) == Segment.POINTER && op == Op.POP)
+                pointerWrites |= 1 << f.index(i);
+        }
+
+        // stack depth before each command, -1 if not reached yet
+        int[] depth = new int[n];
+        Arrays.fill(depth, -1);
+        depth[0] = 0;
+        ArrayDeque<Integer> work = new ArrayDeque<>();
+        work.add(0);
+        while (!work.isEmpty()) {
+            final int i = work.poll();
+            final Op op = f.op(i);
+            final int d = depth[i];
+            final int pops = op == Op.POP || op == Op.IF_GOTO || op.isUnary() ? 1
+                    : op.isBinary() || op.isCompare() ? 2 : 0;
+            final int pushes = op == Op.PUSH || op.isArithmetic() ? 1 : 0;
+            if (d < pops)
+                return null;
+            final int after = d - pops + pushes;
+            if (op == Op.RETURN) {
+                if (d != 1)
+                    return null;
+                continue;
+            }
+            if (op == Op.GOTO || op == Op.IF_GOTO) {
+                Integer target = labels.get(f.label(i));
+                if (target == null || !reach(depth, work, target, after))
+                    return null;
+            }
+            if (op != Op.GOTO && (i + 1 == n || !reach(depth, work, i + 1, after)))
+                return null;
+        }
+        return new Callee(file, f, nArgsUsed, usesStatic, pointerWrites, returnsEarly, zeroed(f));
+    }
+
+    /**
+     * the locals of f that may be read before f writes them, by a scan of the commands up to the first branch:
+     * a local popped there is written before any read, the others keep their 0
+     */
+    private static boolean[] zeroed(VmFunction f) {
+        boolean[] zeroed = new boolean[f.nLocals];
+        Arrays.fill(zeroed, true);
+        boolean[] seen = new boolean[f.nLocals];
+        for (int i = 0; i < f.size(); i++) {
+            final Op op = f.op(i);
+            if (op == Op.LABEL || op == Op.GOTO || op == Op.IF_GOTO || op == Op.RETURN)
+                break;
+            if (f.segment(i) != Segment.LOCAL || f.index(i) >= f.nLocals || seen[f.index(i)])
+                continue;
+            seen[f.index(i)] = true;
+            zeroed[f.index(i)] = op == Op.PUSH;
+        }
+        return zeroed;
+    }
+
+    // false if i is reached with another depth
+    private static boolean reach(int[] depth, ArrayDeque<Integer> work, int i, int d) {
+        if (depth[i] == -1) {
+            depth[i] = d;
+            work.add(i);
+            return true;
+        }
+        return depth[i] == d;
+    }
+}
@@ -0,0 +1,586 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --jit for Emulator: runs the hot code of the ROM as JVM bytecode.
+ * a block is the instructions from a jump target up to the next jump, at most MAX_BLOCK.
+ * Cpu runs a block at a time and counts how often each one starts;
+ * at HOT, the blocks reachable from it by constant jumps that have run before
+ * become a region, one hidden class whose run() has a label per block and does the jumps between them with goto.
+ * a jump to a computed address (a return) goes through a lookupswitch on the blocks of the region,
+ * a jump out of it back to run(), which enters the region of the target or runs it on Cpu.
+ * the cycles stay exact: a region leaves before a block it has no budget left for.
+ * a block with a comp the assembler never emits isn't compiled, and the ROM can't be written,
+ * so no code changes under a region. Cpu.Io isn't called from a region, SCREEN and KBD are plain RAM
+ */
+public class Jit {
+    // a compiled region, regs are {A, D, cycle budget, pc} in and out, returns the pc
+    public interface Code {
+        int run(short[] ram, int[] regs);
+    }
+
+    private static final int HOT = 64;
+    private static final int MAX_BLOCK = 256;
+    // instructions per region, so the branches of run() stay in 16 bits
+    private static final int MAX_REGION = 1024;
+
+    private final Cpu cpu;
+    private final int[] words;
+    // pc -> the region with a block there, or null
+    private final Code[] compiled = new Code[Cpu.MEMORY_SIZE + 1];
+    // times each block ran on Cpu, -1 once it won't compile
+    private final int[] counts = new int[Cpu.MEMORY_SIZE + 1];
+    private final int[] regs = new int[4];
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private long jitCycles;
+    private int nRegions;
+    private int nBlocks;
+    private long compileNanos;
+
+    // words are those cpu was made with
+    public Jit(Cpu cpu, int[] words) {
+        this.cpu = cpu;
+        this.words = words;
+    }
+
+    /**
+     * like Cpu.run, the compiled regions and Cpu in turn
+     * @return why it stopped
+     */
+    public Cpu.Stop run(long maxCycles) {
+        final long limit = maxCycles > Long.MAX_VALUE - cpu.cycles ? Long.MAX_VALUE : cpu.cycles + maxCycles;
+        while (cpu.cycles < limit) {
+            final int pc = cpu.pc;
+            final Code code = compiled[pc];
+            if (code != null) {
+                final int budget = (int) Math.min(limit - cpu.cycles, Integer.MAX_VALUE);
+                regs[0] = cpu.a;
+                regs[1] = cpu.d;
+                regs[2] = budget;
+                regs[3] = pc;
+                cpu.pc = code.run(cpu.ram, regs);
+                cpu.a = regs[0];
+                cpu.d = regs[1];
+                final int ran = budget - regs[2];
+                cpu.cycles += ran;
+                jitCycles += ran;
+                // else the budget is short of the first block
+                if (ran > 0)
+                    continue;
+            }
+            final int end = blockEnd(words, pc);
+            if (counts[pc] >= 0 && ++counts[pc] == HOT)
+                compile(pc);
+            final Cpu.Stop stop = cpu.run(Math.min(Math.max(end - pc, 1), limit - cpu.cycles));
+            if (stop != Cpu.Stop.LIMIT)
+                return stop;
+        }
+        return Cpu.Stop.LIMIT;
+    }
+
+    // for another run of the same ROM from reset: the regions stay compiled, the cycles in them count from 0
+    public void resetCycles() {
+        jitCycles = 0;
+    }
+
+    // like 12 regions of 80 blocks, 97.5% of 1000 cycles compiled, 3.2 ms compiling
+    public String report() {
+        return String.format("jit: %d regions of %d blocks, %.1f%% of %d cycles compiled, %.1f ms compiling",
+                nRegions, nBlocks, cpu.cycles == 0 ? 0.0 : jitCycles * 100.0 / cpu.cycles, cpu.cycles,
+                compileNanos / 1e6);
+    }
+
+    // the block from pc runs up to here, excluded; pc itself for a halt or past the program
+    static int blockEnd(int[] words, int pc) {
+        int i = pc;
+        while (i < words.length && i - pc < MAX_BLOCK && !Cpu.isHalt(words, i)) {
+            final int word = words[i++];
+            if ((word & 0x8000) != 0 && (word & 7) != 0)
+                break;
+        }
+        return i;
+    }
+
+    private boolean compilable(int pc) {
+        final int end = blockEnd(words, pc);
+        if (end == pc)
+            return false;
+        for (int i = pc; i < end; i++) {
+            final int word = words[i];
+            if ((word & 0x8000) != 0 && Cpu.OPS[word >> 6 & 0x7F] == Cpu.GENERIC)
+                return false;
+        }
+        return true;
+    }
+
+    // the constant A the last instruction of the block jumps to, -1 for a computed one
+    private int target(int pc, int end) {
+        int known = -1;
+        for (int i = pc; i < end - 1; i++) {
+            final int word = words[i];
+            if ((word & 0x8000) == 0)
+                known = word;
+            else if ((word & 0x20) != 0)
+                known = -1;
+        }
+        return known;
+    }
+
+    private void compile(int hot) {
+        final long start = System.nanoTime();
+        List<Integer> blocks = new ArrayList<>();
+        Map<Integer, Integer> labels = new HashMap<>();
+        Deque<Integer> work = new ArrayDeque<>();
+        work.add(hot);
+        int size = 0;
+        while (!work.isEmpty() && size < MAX_REGION) {
+            final int pc = work.poll();
+            if (labels.containsKey(pc) || pc != hot && (counts[pc] <= 0 || compiled[pc] != null) || !compilable(pc))
+                continue;
+            labels.put(pc, blocks.size());
+            blocks.add(pc);
+            final int end = blockEnd(words, pc);
+            size += end - pc;
+            final int jump = words[end - 1] & 0x8000 | words[end - 1] & 7;
+            if (jump != 0x8007)
+                work.add(end);
+            final int target = target(pc, end);
+            if (jump > 0x8000 && target >= 0)
+                work.add(target);
+        }
+        if (blocks.isEmpty()) {
+            counts[hot] = -1;
+            return;
+        }
+        try {
+            final byte[] bytes = new RegionWriter(blocks, labels).classFile();
+            final Class<?> region = lookup.defineHiddenClass(bytes, true).lookupClass();
+            final Code code = (Code) lookup.findConstructor(region, MethodType.methodType(void.class)).invoke();
+            for (int pc : blocks)
+                compiled[pc] = code;
+            nRegions++;
+            nBlocks += blocks.size();
+        } catch (Throwable e) {
+            // a region too big for 16-bit branches, run on Cpu
+            counts[hot] = -1;
+        }
+        compileNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * the class file of a region, version 49 so it needs no StackMapTable:
+     *   run(ram, regs) { a = regs[0]; d = regs[1]; budget = regs[2]; pc = regs[3];
+     *     dispatch: switch (pc) { case block: goto block; default: goto exit }
+     *     block: if (budget < n) goto exit; budget -= n; ...; pc = next; goto next/dispatch/exit
+     *     exit: regs[0] = a; regs[1] = d; regs[2] = budget; return pc; }
+     */
+    private class RegionWriter {
+        // the locals of run()
+        private static final int RAM = 1, REGS = 2, A = 3, D = 4, BUDGET = 5, PC = 6, OUT = 7, TARGET = 8;
+        // opcodes
+        private static final int ICONST_M1 = 0x02, ICONST_0 = 0x03, ICONST_1 = 0x04, SIPUSH = 0x11,
+                ILOAD = 0x15, ALOAD = 0x19, IALOAD = 0x2e, SALOAD = 0x35, ISTORE = 0x36, IASTORE = 0x4f,
+                SASTORE = 0x56, IADD = 0x60, ISUB = 0x64, INEG = 0x74, IAND = 0x7e, IOR = 0x80, IXOR = 0x82,
+                I2S = 0x93, IFEQ = 0x99, IF_ICMPLT = 0xa1, GOTO = 0xa7, LOOKUPSWITCH = 0xab, IRETURN = 0xac;
+        // Cpu.M.. -> the op with A for M
+        private static final int[] A_TWINS = {Cpu.A, Cpu.NOT_A, Cpu.NEG_A, Cpu.A_PLUS_1, Cpu.A_MINUS_1,
+                Cpu.D_PLUS_A, Cpu.D_MINUS_A, Cpu.A_MINUS_D, Cpu.D_AND_A, Cpu.D_OR_A};
+        // IFEQ + these for JGT..JLE: ifgt, ifeq, ifge, iflt, ifne, ifle
+        private static final int[] JUMP_OPS = {0, 4, 0, 3, 2, 1, 5};
+
+        private final List<Integer> blocks;
+        private final Map<Integer, Integer> labels;
+        private byte[] code = new byte[4096];
+        private int n;
+        // label -> code position; blocks come first, then these
+        private final int[] bound;
+        private final int dispatch;
+        private final int exit;
+        private int nLabels;
+        // {opcode position, operand position, label, 2 or 4 bytes}
+        private final List<int[]> fixups = new ArrayList<>();
+
+        RegionWriter(List<Integer> blocks, Map<Integer, Integer> labels) {
+            this.blocks = blocks;
+            this.labels = labels;
+            nLabels = blocks.size();
+            dispatch = nLabels++;
+            exit = nLabels++;
+            bound = new int[nLabels + 2 * MAX_REGION];
+        }
+
+        byte[] classFile() {
+            runCode();
+            final ClassBytes out = new ClassBytes();
+            out.u4(0xCAFEBABE);
+            out.u2(0);
+            out.u2(49);
+            // the constant pool
+            out.u2(14);
+            out.utf8("HackRegion");                 // 1
+            out.u1(7).u2(1);                        // 2 this
+            out.utf8("java/lang/Object");           // 3
+            out.u1(7).u2(3);                        // 4 super
+            out.utf8("Jit$Code");                   // 5
+            out.u1(7).u2(5);                        // 6
+            out.utf8("<init>");                     // 7
+            out.utf8("()V");                        // 8
+            out.u1(12).u2(7).u2(8);                 // 9
+            out.u1(10).u2(4).u2(9);                 // 10 Object.<init>
+            out.utf8("run");                        // 11
+            out.utf8("([S[I)I");                    // 12
+            out.utf8("Code");                       // 13
+            // public final, super, interfaces, no fields
+            out.u2(0x0031).u2(2).u2(4).u2(1).u2(6).u2(0);
+            out.u2(2);
+            method(out, 7, 8, 1, 1, new byte[]{0x2a, (byte) 0xb7, 0, 10, (byte) 0xb1});
+            method(out, 11, 12, 8, TARGET + 1, Arrays.copyOf(code, n));
+            out.u2(0);
+            return out.toArray();
+        }
+
+        private void method(ClassBytes out, int name, int descriptor, int maxStack, int maxLocals, byte[] body) {
+            out.u2(0x0001).u2(name).u2(descriptor).u2(1);
+            out.u2(13).u4(12 + body.length).u2(maxStack).u2(maxLocals).u4(body.length);
+            out.bytes(body);
+            out.u2(0).u2(0);
+        }
+
+        private void runCode() {
+            for (int r = 0; r < 4; r++) {
+                op(ALOAD, REGS);
+                push(r);
+                op(IALOAD);
+                op(ISTORE, new int[]{A, D, BUDGET, PC}[r]);
+            }
+            bind(dispatch);
+            op(ILOAD, PC);
+            lookupSwitch();
+            for (int pc : blocks)
+                block(pc);
+            bind(exit);
+            for (int r = 0; r < 3; r++) {
+                op(ALOAD, REGS);
+                push(r);
+                op(ILOAD, new int[]{A, D, BUDGET}[r]);
+                op(IASTORE);
+            }
+            op(ILOAD, PC);
+            op(IRETURN);
+            for (int[] f : fixups) {
+                final int offset = bound[f[2]] - f[0];
+                if (f[3] == 2 && offset != (short) offset)
+                    throw new IllegalStateException("a branch of " + offset + " bytes");
+                if (f[3] == 2) {
+                    code[f[1]] = (byte) (offset >> 8);
+                    code[f[1] + 1] = (byte) offset;
+                } else {
+                    put4(f[1], offset);
+                }
+            }
+        }
+
+        private void lookupSwitch() {
+            final int at = n;
+            op(LOOKUPSWITCH);
+            while (n % 4 != 0)
+                op(0);
+            Integer[] sorted = blocks.toArray(new Integer[0]);
+            Arrays.sort(sorted);
+            fixups.add(new int[]{at, n, exit, 4});
+            int4(0);
+            int4(sorted.length);
+            for (int pc : sorted) {
+                int4(pc);
+                fixups.add(new int[]{at, n, labels.get(pc), 4});
+                int4(0);
+            }
+        }
+
+        private void block(int pc) {
+            final int end = blockEnd(words, pc);
+            bind(labels.get(pc));
+            // the budget, pc is already the block
+            op(ILOAD, BUDGET);
+            push(end - pc);
+            branch(IF_ICMPLT, exit);
+            op(ILOAD, BUDGET);
+            push(end - pc);
+            op(ISUB);
+            op(ISTORE, BUDGET);
+            int known = -1;
+            for (int i = pc; i < end; i++) {
+                final int word = words[i];
+                if ((word & 0x8000) == 0) {
+                    push(word);
+                    op(ISTORE, A);
+                    known = word;
+                    continue;
+                }
+                final int jump = word & 7;
+                comp(Cpu.OPS[word >> 6 & 0x7F], known);
+                op(ISTORE, OUT);
+                if (jump != 0 && known < 0) {
+                    op(ILOAD, A);
+                    push(0x7FFF);
+                    op(IAND);
+                    op(ISTORE, TARGET);
+                }
+                if ((word & 0x08) != 0) {
+                    op(ALOAD, RAM);
+                    address(known);
+                    op(ILOAD, OUT);
+                    op(SASTORE);
+                }
+                if ((word & 0x20) != 0) {
+                    op(ILOAD, OUT);
+                    op(ISTORE, A);
+                }
+                if ((word & 0x10) != 0) {
+                    op(ILOAD, OUT);
+                    op(ISTORE, D);
+                }
+                if (jump == 0) {
+                    if ((word & 0x20) != 0)
+                        known = -1;
+                    continue;
+                }
+                if (jump != 7) {
+                    final int taken = nLabels++;
+                    op(ILOAD, OUT);
+                    branch(IFEQ + JUMP_OPS[jump], taken);
+                    next(end);
+                    bind(taken);
+                }
+                if (known >= 0) {
+                    next(known);
+                } else {
+                    op(ILOAD, TARGET);
+                    op(ISTORE, PC);
+                    branch(GOTO, dispatch);
+                }
+                return;
+            }
+            next(end);
+        }
+
+        // pc = target, then to its block or out
+        private void next(int target) {
+            push(target);
+            op(ISTORE, PC);
+            final Integer label = labels.get(target);
+            branch(GOTO, label != null ? label : exit);
+        }
+
+        // push the comp of the dense ALU op
+        private void comp(int aluOp, int known) {
+            switch (aluOp) {
+                case Cpu.ZERO:
+                    op(ICONST_0);
+                    break;
+                case Cpu.ONE:
+                    op(ICONST_1);
+                    break;
+                case Cpu.MINUS_ONE:
+                    op(ICONST_M1);
+                    break;
+                case Cpu.D:
+                    op(ILOAD, D);
+                    break;
+                case Cpu.NOT_D:
+                    op(ILOAD, D);
+                    op(ICONST_M1);
+                    op(IXOR);
+                    break;
+                case Cpu.NEG_D:
+                    op(ILOAD, D);
+                    op(INEG);
+                    op(I2S);
+                    break;
+                case Cpu.D_PLUS_1:
+                    op(ILOAD, D);
+                    op(ICONST_1);
+                    op(IADD);
+                    op(I2S);
+                    break;
+                case Cpu.D_MINUS_1:
+                    op(ILOAD, D);
+                    op(ICONST_1);
+                    op(ISUB);
+                    op(I2S);
+                    break;
+                default:
+                    y(aluOp, known);
+            }
+        }
+
+        // push the comp of an op on y, y is M for the ops from Cpu.M on
+        private void y(int aluOp, int known) {
+            final boolean readsM = aluOp >= Cpu.M;
+            final int op = readsM ? A_TWINS[aluOp - Cpu.M] : aluOp;
+            if (op == Cpu.D_PLUS_A || op == Cpu.D_MINUS_A || op == Cpu.D_AND_A || op == Cpu.D_OR_A)
+                op(ILOAD, D);
+            y(readsM, known);
+            switch (op) {
+                case Cpu.NOT_A:
+                    op(ICONST_M1);
+                    op(IXOR);
+                    break;
+                case Cpu.NEG_A:
+                    op(INEG);
+                    op(I2S);
+                    break;
+                case Cpu.A_PLUS_1:
+                    op(ICONST_1);
+                    op(IADD);
+                    op(I2S);
+                    break;
+                case Cpu.A_MINUS_1:
+                    op(ICONST_1);
+                    op(ISUB);
+                    op(I2S);
+                    break;
+                case Cpu.D_PLUS_A:
+                    op(IADD);
+                    op(I2S);
+                    break;
+                case Cpu.D_MINUS_A:
+                    op(ISUB);
+                    op(I2S);
+                    break;
+                case Cpu.A_MINUS_D:
+                    op(ILOAD, D);
+                    op(ISUB);
+                    op(I2S);
+                    break;
+                case Cpu.D_AND_A:
+                    op(IAND);
+                    break;
+                case Cpu.D_OR_A:
+                    op(IOR);
+                    break;
+                default:
+                    // A
+                    break;
+            }
+        }
+
+        // push A, or M
+        private void y(boolean readsM, int known) {
+            if (readsM) {
+                op(ALOAD, RAM);
+                address(known);
+                op(SALOAD);
+            } else {
+                op(ILOAD, A);
+            }
+        }
+
+        private void address(int known) {
+            if (known >= 0) {
+                push(known);
+            } else {
+                op(ILOAD, A);
+                push(0x7FFF);
+                op(IAND);
+            }
+        }
+
+        private void push(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else {
+                op(SIPUSH);
+                op(value >> 8 & 0xFF);
+                op(value & 0xFF);
+            }
+        }
+
+        private void bind(int label) {
+            bound[label] = n;
+        }
+
+        private void branch(int opcode, int label) {
+            fixups.add(new int[]{n, n + 1, label, 2});
+            op(opcode);
+            op(0);
+            op(0);
+        }
+
+        private void op(int opcode, int local) {
+            op(opcode);
+            op(local);
+        }
+
+        private void op(int b) {
+            if (n == code.length)
+                code = Arrays.copyOf(code, n * 2);
+            code[n++] = (byte) b;
+        }
+
+        private void int4(int v) {
+            for (int i = 0; i < 4; i++)
+                op(0);
+            put4(n - 4, v);
+        }
+
+        private void put4(int at, int v) {
+            code[at] = (byte) (v >> 24);
+            code[at + 1] = (byte) (v >> 16);
+            code[at + 2] = (byte) (v >> 8);
+            code[at + 3] = (byte) v;
+        }
+    }
+
+    // big-endian bytes of a class file
+    private static class ClassBytes {
+        private byte[] bytes = new byte[1024];
+        private int n;
+
+        ClassBytes u1(int v) {
+            if (n == bytes.length)
+                bytes = Arrays.copyOf(bytes, n * 2);
+            bytes[n++] = (byte) v;
+            return this;
+        }
+
+        ClassBytes u2(int v) {
+            return u1(v >> 8).u1(v);
+        }
+
+        ClassBytes u4(int v) {
+            return u2(v >>> 16).u2(v);
+        }
+
+        ClassBytes bytes(byte[] b) {
+            for (byte x : b)
+                u1(x);
+            return this;
+        }
+
+        // an ASCII CONSTANT_Utf8
+        ClassBytes utf8(String s) {
+            u1(1).u2(s.length());
+            for (int i = 0; i < s.length(); i++)
+                u1(s.charAt(i));
+            return this;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, n);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.BitSet;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * the Slots that may be read later, after each command of a function.
+ * everything is live where the function is left without a return,
+ * and where it halts, as the frame is then the result of the program
+ */
+public final class Liveness {
+    private final BitSet[] after;
+
+    public Liveness(Cfg cfg) {
+        final VmFunction f = cfg.function;
+        final int n = cfg.size();
+        final int nSlots = Slots.count(f);
+        BitSet all = new BitSet();
+        all.set(0, nSlots);
+        BitSet[] gen = new BitSet[n];
+        BitSet[] kill = new BitSet[n];
+        BitSet[] exit = new BitSet[n];
+        for (int b = 0; b < n; b++) {
+            gen[b] = new BitSet();
+            kill[b] = new BitSet();
+            for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+                final int def = Slots.def(f, i);
+                if (def >= 0) {
+                    gen[b].clear(def);
+                    kill[b].set(def);
+                }
+                BitSet uses = new BitSet();
+                Slots.uses(f, i, nSlots, uses);
+                gen[b].or(uses);
+            }
+            exit[b] = cfg.exits(b) || cfg.halts(b) ? all : null;
+        }
+        Dataflow live = Dataflow.backward(cfg, gen, kill, exit);
+
+        after = new BitSet[f.size()];
+        for (int b = 0; b < n; b++) {
+            BitSet x = (BitSet) live.out[b].clone();
+            for (int i = cfg.end(b) - 1; i >= cfg.start(b); i--) {
+                after[i] = (BitSet) x.clone();
+                final int def = Slots.def(f, i);
+                if (def >= 0)
+                    x.clear(def);
+                Slots.uses(f, i, nSlots, x);
+            }
+        }
+    }
+
+    // the slots live right after command i
+    public BitSet after(int i) {
+        return after[i];
+    }
+
+    public boolean isLiveAfter(int slot, int i) {
+        return after[i].get(slot);
+    }
+}
@@ -1,5 +1,6 @@
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author Joiy908
@@ -8,54 +9,36 @@ import java.io.IOException;
 
 public class Main {
     public static void main(String[] args){
-
-        File input = new File(args[0]);
-        if (!(input.exists())) {
-            System.out.println("Fail to open the file/dir: " + args[0]);
-            return ;
+        Options opts = Options.parse(args);
+        if (opts == null) {
+            System.out.println(Options.usage("Main"));
+            return;
         }
 
-        final File[] vmFiles;
-        if (input.isDirectory()) {
-            vmFiles = input.listFiles((dir, name) -> name.matches(".*\\.vm$"));
-        } else { // input.isFile()
-            vmFiles = new File[] {input};
+        if (!(opts.input.exists())) {
+            System.out.println("Fail to open the file/dir: " + opts.input);
+            return ;
         }
 
-        File out = new File(getASMPath(input));
-        try(CodeWriter writer = new CodeWriter(out)) {
-            assert vmFiles != null;
-            writer.writeInit();
-            for (File vmFile : vmFiles) {
-                writer.setClassName(getClassName(vmFile.getName()));
-                try (Parser p = new Parser(vmFile)){
-                    while(p.hasNext()) {
-                        writer.write(p.next());
-                    }
-                }
-            }
-        } catch (IOException e) {
+        try {
+            if (opts.interpret)
+                VmInterpreter.run(opts, Main::parse);
+            else if (opts.watch)
+                new Daemon(opts, Main::parse).run();
+            else
+                new Translator(opts, Main::parse).run();
+        } catch (IOException | InterruptedException e) {
             e.printStackTrace();
         }
     }
 
+    private static VmFile parse(File vmFile, ByteBuffer content) {
+        return new Parser(content).parse(getClassName(vmFile.getName()));
+    }
+
     // Xxx.vm to Xxx
     private static String getClassName(String name) {
         final int pos = name.lastIndexOf('.');
         return name.substring(0, pos);
     }
-
-    /**
-     * assume in.exists()
-     * Xxx or Xxx.vm to Xxx.asm
-     */
-    private static String getASMPath(File in) {
-        if(in.isFile()) {
-            final int pos = in.getName().lastIndexOf('.');
-            String rst = in.getName().substring(0, pos);
-            return rst+".asm";
-        } else if (in.isDirectory()) {
-            return in.getPath() + File.separator + in.getName() + ".asm";
-        } else throw new IllegalArgumentException();
-    }
 }
@@ -0,0 +1,122 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --metrics: the time of each stage of a run, and the asm emitted per kind of VM command
+ * and per function, written out as JSON. the asm is counted as CodeWriter emits it, before Peephole.
+ * a stage sums the time of all the threads in it, so with --parallel they may add up to more than the wall time.
+ * nothing is counted without --metrics, CodeWriter and AsmOutput only test a null or a flag
+ */
+public class Metrics {
+    public enum Stage {
+        SCAN("scan"), PARSE("parse"), PASSES("passes"), CODEGEN("codegen"), FLUSH("flush");
+
+        final String text;
+
+        Stage(String text) {
+            this.text = text;
+        }
+    }
+
+    // kinds that aren't a single VM command
+    static final String BOOTSTRAP = "bootstrap";
+    static final String END_OF_FILE = "end of file";
+    // the shared routines after the bootstrap, in a SourceMap
+    static final String ROUTINES = "routines";
+
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private final long start = System.nanoTime();
+    // name -> {commands, instructions, bytes}
+    private final Map<String, long[]> byKind = new TreeMap<>();
+    private final Map<String, long[]> byFunction = new TreeMap<>();
+    private int nFiles;
+
+    // add the time since `since` to stage, return now
+    public long lap(Stage stage, long since) {
+        final long now = System.nanoTime();
+        stageNanos.addAndGet(stage.ordinal(), now - since);
+        return now;
+    }
+
+    public synchronized void files(int n) {
+        nFiles = n;
+    }
+
+    /**
+     * @param kind like push, or eq if-goto for commands emitted together
+     * @param commands the VM commands of kind, 0 for the bootstrap and such
+     */
+    public synchronized void count(String kind, String function, int commands, long instructions, long bytes) {
+        add(byKind, kind, commands, instructions, bytes);
+        add(byFunction, function, commands, instructions, bytes);
+    }
+
+    private static void add(Map<String, long[]> counts, String key, int commands, long instructions, long bytes) {
+        long[] c = counts.computeIfAbsent(key, k -> new long[3]);
+        c[0] += commands;
+        c[1] += instructions;
+        c[2] += bytes;
+    }
+
+    public synchronized void write(File out, Options opts) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"input\": ").append(quote(opts.input.getPath()))
+                .append(",\n  \"options\": ").append(quote(opts.describe()))
+                .append(",\n  \"files\": ").append(nFiles)
+                .append(",\n  \"wall_ms\": ").append(millis(System.nanoTime() - start))
+                .append(",\n  \"stages_ms\": {");
+        for (Stage stage : Stage.values()) {
+            json.append(stage.ordinal() == 0 ? "\n" : ",\n").append("    ").append(quote(stage.text)).append(": ")
+                    .append(millis(stageNanos.get(stage.ordinal())));
+        }
+        json.append("\n  },\n  \"by_kind\": ");
+        appendCounts(json, byKind);
+        json.append(",\n  \"by_function\": ");
+        appendCounts(json, byFunction);
+        json.append("\n}\n");
+        Files.write(out.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void appendCounts(StringBuilder json, Map<String, long[]> counts) {
+        json.append('{');
+        String sep = "\n";
+        for (Map.Entry<String, long[]> e : counts.entrySet()) {
+            long[] c = e.getValue();
+            json.append(sep).append("    ").append(quote(e.getKey()))
+                    .append(": {\"commands\": ").append(c[0])
+                    .append(", \"instructions\": ").append(c[1])
+                    .append(", \"bytes\": ").append(c[2]).append('}');
+            sep = ",\n";
+        }
+        json.append("\n  }");
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String s) {
+        StringBuilder q = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                q.append('\\').append(c);
+            else if (c < ' ')
+                q.append(String.format("\\u%04x", (int) c));
+            else
+                q.append(c);
+        }
+        return q.append('"').toString();
+    }
+}
@@ -0,0 +1,91 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+// VM command opcode, stored as its ordinal in VmFunction
+public enum Op {
+    ADD("add"),
+    SUB("sub"),
+    NEG("neg"),
+    EQ("eq"),
+    GT("gt"),
+    LT("lt"),
+    AND("and"),
+    OR("or"),
+    NOT("not"),
+    PUSH("push"),
+    POP("pop"),
+    LABEL("label"),
+    GOTO("goto"),
+    IF_GOTO("if-goto"),
+    FUNCTION("function"),
+    CALL("call"),
+    RETURN("return");
+
+    static final Op[] VALUES = values();
+
+    public final String text;
+    private final byte[] bytes;
+
+    Op(String text) {
+        this.text = text;
+        this.bytes = AsmOutput.ascii(text);
+    }
+
+    public static Op of(String text) {
+        switch (text) {
+            case "add": return ADD;
+            case "sub": return SUB;
+            case "neg": return NEG;
+            case "eq": return EQ;
+            case "gt": return GT;
+            case "lt": return LT;
+            case "and": return AND;
+            case "or": return OR;
+            case "not": return NOT;
+            case "push": return PUSH;
+            case "pop": return POP;
+            case "label": return LABEL;
+            case "goto": return GOTO;
+            case "if-goto": return IF_GOTO;
+            case "function": return FUNCTION;
+            case "call": return CALL;
+            case "return": return RETURN;
+            default:
+                throw new IllegalArgumentException(text + " is an illegal command name.");
+        }
+    }
+
+    // of(String) without the String, for the byte scanner
+    public static Op of(byte[] buf, int off, int len) {
+        for (Op op : VALUES) {
+            if (Arrays.equals(op.bytes, 0, op.bytes.length, buf, off, off + len))
+                return op;
+        }
+        throw new IllegalArgumentException(new String(buf, off, len, StandardCharsets.US_ASCII)
+                + " is an illegal command name.");
+    }
+
+    // add, sub, and, or
+    public boolean isBinary() {
+        return this == ADD || this == SUB || this == AND || this == OR;
+    }
+
+    // neg, not
+    public boolean isUnary() {
+        return this == NEG || this == NOT;
+    }
+
+    // eq, gt, lt
+    public boolean isCompare() {
+        return this == EQ || this == GT || this == LT;
+    }
+
+    public boolean isArithmetic() {
+        return ordinal() <= NOT.ordinal();
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+// command line options shared by Main and VMTranslator
+public class Options {
+    public File input;
+    // translate each .vm file to its own buffer on the fork-join pool
+    public boolean parallel;
+    // call sites and returns jump to the global routines emitted by writeInit
+    public boolean sharedCalls;
+    // eq/lt/gt jump to one routine per comparison kind, for the kinds with the sites to save ROM by it,
+    // see CodeWriter.compareRoutines
+    public boolean sharedCompare;
+    // rewrite the emitted instruction stream through Peephole
+    public boolean peephole;
+    // track SP at compile time and keep the top of stack in D, see StackCacheWriter
+    public boolean stackCache;
+    // assemble to Xxx.hack in process, as '0'/'1' text or as packed words
+    public boolean hack;
+    public boolean hackBinary;
+    // write Xxx.asm too when assembling
+    public boolean asm;
+    // reuse the fragments of unchanged files from <dir>/.vmcache
+    public boolean cache;
+    // drop the functions Sys.init can't reach, see DeadFunctions
+    public boolean deadFunctions;
+    // inline the leaf functions of at most this many commands, 0 = off, see Inliner
+    public int inline;
+    // fold constant expressions, see ConstantFolder
+    public boolean fold;
+    // call f n; return reuses the current frame, see CodeWriter.writeTailCall
+    public boolean tailCalls;
+    // constants through the segment slots and dead stores, see DeadStores
+    public boolean deadStores;
+    // stay up and rebuild on each change of a .vm file, see Daemon
+    public boolean watch;
+    // write the stage times and the emitted asm per command kind and function as JSON, see Metrics.
+    // a fragment of --cache and --watch isn't counted, so every file is translated
+    public boolean metrics;
+    // null for Xxx.metrics.json next to the output
+    public File metricsFile;
+    // write Xxx.map, the .vm command of each range of ROM addresses, see SourceMap.
+    // the fragments of --cache and --watch have no marks, so every file is translated
+    public boolean sourceMap;
+    // run the .vm files instead of translating them, see VmInterpreter
+    public boolean interpret;
+    // the counts of Emulator --counts, to pick the inline or the shared sequence of each command, see Pgo.
+    // overrides sharedCalls and sharedCompare
+    public File pgo;
+
+    /**
+     * <dir | file.vm> [--parallel] [--shared-calls] [--shared-compare] [--peephole] [--stack-cache]
+     * [--hack | --hack-binary] [--asm] [--cache] [--dead-functions] [--inline[=maxSize]]
+     * [--fold] [--tail-calls] [--dead-stores] [--watch] [--metrics[=file.json]] [--source-map]
+     * [--interpret] [--pgo=Xxx.counts]
+     * @return null if args are illegal
+     */
+    public static Options parse(String[] args) {
+        Options opts = new Options();
+        for (String arg : args) {
+            switch (arg) {
+                case "--parallel":
+                    opts.parallel = true;
+                    break;
+                case "--shared-calls":
+                    opts.sharedCalls = true;
+                    break;
+                case "--shared-compare":
+                    opts.sharedCompare = true;
+                    break;
+                case "--peephole":
+                    opts.peephole = true;
+                    break;
+                case "--stack-cache":
+                    opts.stackCache = true;
+                    break;
+                case "--hack":
+                    opts.hack = true;
+                    break;
+                case "--hack-binary":
+                    opts.hackBinary = true;
+                    break;
+                case "--asm":
+                    opts.asm = true;
+                    break;
+                case "--cache":
+                    opts.cache = true;
+                    break;
+                case "--dead-functions":
+                    opts.deadFunctions = true;
+                    break;
+                case "--fold":
+                    opts.fold = true;
+                    break;
+                case "--tail-calls":
+                    opts.tailCalls = true;
+                    break;
+                case "--dead-stores":
+                    opts.deadStores = true;
+                    break;
+                case "--watch":
+                    opts.watch = true;
+                    break;
+                case "--metrics":
+                    opts.metrics = true;
+                    break;
+                case "--source-map":
+                    opts.sourceMap = true;
+                    break;
+                case "--interpret":
+                    opts.interpret = true;
+                    break;
+                case "--inline":
+                    opts.inline = Inliner.DEFAULT_MAX_SIZE;
+                    break;
+                default:
+                    if (arg.startsWith("--inline=")) {
+                        try {
+                            opts.inline = Integer.parseInt(arg.substring("--inline=".length()));
+                        } catch (NumberFormatException e) {
+                            return null;
+                        }
+                        if (opts.inline < 0)
+                            return null;
+                        break;
+                    }
+                    if (arg.startsWith("--pgo=")) {
+                        opts.pgo = new File(arg.substring("--pgo=".length()));
+                        break;
+                    }
+                    if (arg.startsWith("--metrics=")) {
+                        opts.metrics = true;
+                        opts.metricsFile = new File(arg.substring("--metrics=".length()));
+                        break;
+                    }
+                    if (arg.startsWith("--") || opts.input != null)
+                        return null;
+                    opts.input = new File(arg);
+            }
+        }
+        if (opts.hack && opts.hackBinary)
+            return null;
+        return opts.input == null ? null : opts;
+    }
+
+    /**
+     * assume input.exists()
+     * .vm files of the input dir sorted by name, so the output doesn't depend on listFiles order
+     */
+    public File[] vmFiles() {
+        if (input.isFile())
+            return new File[] {input};
+        File[] vmFiles = input.listFiles((dir, name) -> name.matches(".*\\.vm$"));
+        assert vmFiles != null;
+        Arrays.sort(vmFiles, Comparator.comparing(File::getName));
+        return vmFiles;
+    }
+
+    // the options that change the asm of a single .vm file, for FragmentCache
+    public String codegenKey() {
+        return "shared-calls=" + sharedCalls + " shared-compare=" + sharedCompare
+                + " peephole=" + peephole + " stack-cache=" + stackCache + " fold=" + fold
+                + " tail-calls=" + tailCalls + " dead-stores=" + deadStores;
+    }
+
+    // every option but the input, like codegenKey, for the "options" of Metrics
+    public String describe() {
+        return "parallel=" + parallel + ' ' + codegenKey() + " hack=" + hack + " hack-binary=" + hackBinary
+                + " asm=" + asm + " cache=" + cache + " dead-functions=" + deadFunctions + " inline=" + inline
+                + " watch=" + watch + " metrics=" + (metricsFile == null ? metrics : metricsFile.getPath())
+                + " source-map=" + sourceMap + " interpret=" + interpret + " pgo=" + (pgo == null ? "" : pgo.getPath());
+    }
+
+    // the dir of the cache, next to the .asm
+    public File cacheDir() {
+        return new File(input.isDirectory() ? input : input.getAbsoluteFile().getParentFile(), ".vmcache");
+    }
+
+    // assume input.exists()
+    public File metricsFile() {
+        if (metricsFile != null)
+            return metricsFile;
+        String asm = Translator.getASMPath(input);
+        return new File(asm.substring(0, asm.length() - ".asm".length()) + ".metrics.json");
+    }
+
+    // Xxx.map next to the output, assume input.exists()
+    public File sourceMapFile() {
+        String asm = Translator.getASMPath(input);
+        return new File(asm.substring(0, asm.length() - ".asm".length()) + ".map");
+    }
+
+    public static String usage(String program) {
+        return "usage: " + program + " <dir | file.vm> [--parallel] [--shared-calls] [--shared-compare] [--peephole] [--stack-cache]"
+                + " [--hack | --hack-binary] [--asm] [--cache] [--dead-functions] [--inline[=maxSize]]"
+                + " [--fold] [--tail-calls] [--dead-stores] [--watch] [--metrics[=file.json]] [--source-map]"
+                + " [--interpret] [--pgo=Xxx.counts]";
+    }
+}
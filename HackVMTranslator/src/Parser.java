@@ -1,78 +1,156 @@
-import java.io.*;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * @author Joiy908
  * @date 2022/12/31
  */
 
-public class Parser implements Iterator<Command>, Closeable {
+// tokenizes the bytes of a .vm file in place, usually a memory mapping of it,
+// the only heap it needs is the token buffer and the IR itself
+public class Parser {
 
-        private BufferedReader in;
-        private String currLine;
-        private Command currCommand;
+        private final ByteBuffer in;
+        private final int limit;
+        private int pos;
+        private int line = 1;
+        // the current token, copied out of the mapping to be interned
+        private byte[] token = new byte[64];
+        private int tokenLength;
 
-        public Parser(File input) {
-            try {
-                in = new BufferedReader(new FileReader(input));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        // in is read by index, its position is left alone
+        public Parser(ByteBuffer in) {
+            this.in = in;
+            limit = in.limit();
         }
 
-        @Override
-        public boolean hasNext() {
-            try {
-                while ((currLine = in.readLine()) != null) {
-                    currLine = rmComment(currLine);
-                    if (currLine == null)
-                        continue;
-                    advance();
-                    return true;
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+        /**
+         * read all the commands into the IR of a file
+         * @param className Xxx of Xxx.vm
+         */
+        public VmFile parse(String className) {
+            VmFile file = new VmFile(className);
+            while (skipToCommand()) {
+                nextToken();
+                file.line(line);
+                advance(file, Op.of(token, 0, tokenLength));
+                if (nextToken())
+                    throw illegal("too many tokens");
             }
-            return false;
+            return file;
         }
 
-        @Override
-        public Command next() {
-            return currCommand;
+        /**
+         * parse the arguments of op in the current line into file
+         */
+        private void advance(VmFile file, Op op) {
+            switch (op) {
+                case PUSH:
+                case POP:
+                    expectToken();
+                    Segment seg = Segment.of(token, 0, tokenLength);
+                    file.add(op, seg, expectInt());
+                    break;
+                case LABEL:
+                case GOTO:
+                case IF_GOTO:
+                    expectToken();
+                    file.addBranch(op, file.symbols.intern(token, 0, tokenLength));
+                    break;
+                case FUNCTION:
+                    expectToken();
+                    file.addFunction(file.symbols.intern(token, 0, tokenLength), expectInt());
+                    break;
+                case CALL:
+                    expectToken();
+                    file.addCall(file.symbols.intern(token, 0, tokenLength), expectInt());
+                    break;
+                default:
+                    file.add(op);
+            }
         }
 
-        @Override
-        public void close() throws IOException {
-            in.close();
-        }
         /**
-         * remove Comment and white space
-         * assume line != null
-         * @return null if line contains no command
+         * skip blank lines and comments
+         * @return false at the end of file
          */
-        private String rmComment(String line) {
-            // else
-            line = line.trim();
-            if (line.isEmpty()) {
-                return null;
+        private boolean skipToCommand() {
+            while (true) {
+                skipBlank();
+                if (pos == limit)
+                    return false;
+                if (in.get(pos) != '\n')
+                    return true;
+                pos++;
+                line++;
             }
-            else if (line.charAt(0) == '/')
-                return null;
-            else { // has command
-                int pos = line.indexOf('/');
-                if (pos == -1) {
-                    return line;
+        }
+
+        // skip white space and a // comment, up to the '\n'
+        private void skipBlank() {
+            while (pos < limit) {
+                final byte b = in.get(pos);
+                if (isBlank(b)) {
+                    pos++;
+                } else if (isCommentAt(pos)) {
+                    while (pos < limit && in.get(pos) != '\n')
+                        pos++;
                 } else {
-                    return line.substring(0, pos).trim();
+                    return;
                 }
             }
         }
 
         /**
-         * parse currLine to currComment
+         * the next token of the current line into token
+         * @return false at the end of line
          */
-        private void advance() {
-            currCommand = new Command(currLine.split(" "));
+        private boolean nextToken() {
+            skipBlank();
+            if (pos == limit || in.get(pos) == '\n')
+                return false;
+            tokenLength = 0;
+            while (pos < limit) {
+                final byte b = in.get(pos);
+                if (b == '\n' || isBlank(b) || isCommentAt(pos))
+                    break;
+                if (tokenLength == token.length)
+                    token = Arrays.copyOf(token, tokenLength * 2);
+                token[tokenLength++] = b;
+                pos++;
+            }
+            return true;
+        }
+
+        private void expectToken() {
+            if (!nextToken())
+                throw illegal("missing argument");
+        }
+
+        private int expectInt() {
+            expectToken();
+            int value = 0;
+            for (int i = 0; i < tokenLength; i++) {
+                final byte b = token[i];
+                if (b < '0' || b > '9' || value > (Integer.MAX_VALUE - 9) / 10)
+                    throw illegal(new String(token, 0, tokenLength, StandardCharsets.US_ASCII) + " is not an index");
+                value = value * 10 + b - '0';
+            }
+            return value;
+        }
+
+        // white space other than '\n', like ' ', '\t' and '\r'
+        private static boolean isBlank(byte b) {
+            return b != '\n' && b >= 0 && b <= ' ';
+        }
+
+        private boolean isCommentAt(int i) {
+            return in.get(i) == '/' && i + 1 < limit && in.get(i + 1) == '/';
+        }
+
+        private IllegalArgumentException illegal(String msg) {
+            return new IllegalArgumentException("line " + line + ": " + msg);
         }
 
 }
@@ -0,0 +1,267 @@
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * peephole pass over the compact instruction stream, between CodeWriter and the .asm file.
+ * it tracks what A and D hold since the last label, drops instructions that reload a known value,
+ * and rewrites SP round-trips like @SP M=M+1 @SP AM=M-1 at the tail of a small window.
+ * nothing is moved across a label or a jump.
+ * a SourceMap mark goes on with the first instruction after it that is kept,
+ * so an instruction a rewrite put back belongs to the last command of those it replaced
+ */
+public class Peephole implements HackInstr.Sink {
+    // rule table, RULES[i] removed `removed[i]` instructions
+    public static final String[] RULES = {
+            "redundant-at",      // @x while A already holds x
+            "redundant-load",    // D=M while D already equals M
+            "redundant-store",   // M=D while M already equals D
+            "redundant-deref",   // @SP A=M while A already holds *SP
+            "sp-round-trip",     // SP++ right before SP--, or SP-- right before SP++
+    };
+    private static final int REDUNDANT_AT = 0;
+    private static final int REDUNDANT_LOAD = 1;
+    private static final int REDUNDANT_STORE = 2;
+    private static final int REDUNDANT_DEREF = 3;
+    private static final int SP_ROUND_TRIP = 4;
+
+    // what A holds
+    private static final int UNKNOWN = 0;
+    private static final int KNOWN = 1;     // the A instruction aVal
+    private static final int DEREF_SP = 2;  // *SP
+
+    private static final int WINDOW = 8;
+    private static final int NO_MARK = -1;
+    // at most k instructions between SP-- and SP++
+    private static final int MAX_ROUND_TRIP_BODY = 3;
+
+    private static final int M_EQ_D = HackInstr.c("D", 1, 0);
+    private static final int D_EQ_M = HackInstr.c("M", 2, 0);
+    private static final int A_EQ_M = HackInstr.c("M", 4, 0);
+    private static final int A_EQ_M_MINUS_1 = HackInstr.c("M-1", 4, 0);
+    private static final int M_EQ_M_PLUS_1 = HackInstr.c("M+1", 1, 0);
+    private static final int AM_EQ_M_MINUS_1 = HackInstr.c("M-1", 5, 0);
+    private static final int AM_EQ_M_PLUS_1 = HackInstr.c("M+1", 5, 0);
+
+    private final HackInstr.Sink next;
+    private final AtomicLongArray removed;
+    private final long[] localRemoved = new long[RULES.length];
+    private final int atSP;
+    private final int atR0;
+
+    // the window, and the state before each instruction of it
+    private final int[] window = new int[WINDOW + 1];
+    private final int[] aKindBefore = new int[WINDOW + 1];
+    private final int[] aValBefore = new int[WINDOW + 1];
+    private final boolean[] dEqMBefore = new boolean[WINDOW + 1];
+    // the mark right before each instruction of the window, NO_MARK if none
+    private final int[] markBefore = new int[WINDOW + 1];
+    private int size;
+    private final int[] roundTripBody = new int[MAX_ROUND_TRIP_BODY + 1];
+
+    // the state after the window
+    private int aKind;
+    private int aVal;
+    private boolean dEqM;
+    // the mark of the next instruction
+    private int pendingMark = NO_MARK;
+
+    /**
+     * @param removed shared counters indexed like RULES, added to on flush
+     */
+    public Peephole(Symbols symbols, HackInstr.Sink next, AtomicLongArray removed) {
+        this.next = next;
+        this.removed = removed;
+        atSP = HackInstr.aSymbol(symbols.intern("SP"));
+        atR0 = HackInstr.aSymbol(symbols.intern("R0"));
+    }
+
+    // CodeWriter -> Peephole -> out, write into the returned buffer
+    public static AsmOutput open(AsmOutput out, AtomicLongArray removed) {
+        Symbols symbols = new Symbols();
+        return new AsmOutput(symbols, new Peephole(symbols, new AsmPrinter(symbols, out), removed));
+    }
+
+    public static String report(AtomicLongArray removed) {
+        StringBuilder s = new StringBuilder("peephole removed:");
+        for (int i = 0; i < RULES.length; i++)
+            s.append("\n  ").append(RULES[i]).append(' ').append(removed.get(i));
+        return s.toString();
+    }
+
+    @Override
+    public void accept(int instr) {
+        if (HackInstr.kind(instr) == HackInstr.MARK) {
+            pendingMark = instr;
+            return;
+        }
+        if (HackInstr.kind(instr) == HackInstr.LABEL) {
+            emitAll();
+            emitPendingMark();
+            next.accept(instr);
+            aKind = UNKNOWN;
+            dEqM = false;
+            return;
+        }
+        if (isRedundant(instr))
+            return;
+        append(instr);
+        if (HackInstr.kind(instr) == HackInstr.C && HackInstr.jump(instr) != 0) {
+            emitAll();
+            return;
+        }
+        rewriteTail();
+        if (size > WINDOW) {
+            emit(0);
+            size--;
+            System.arraycopy(window, 1, window, 0, size);
+            System.arraycopy(markBefore, 1, markBefore, 0, size);
+            System.arraycopy(aKindBefore, 1, aKindBefore, 0, size);
+            System.arraycopy(aValBefore, 1, aValBefore, 0, size);
+            System.arraycopy(dEqMBefore, 1, dEqMBefore, 0, size);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        emitAll();
+        emitPendingMark();
+        for (int i = 0; i < RULES.length; i++) {
+            removed.addAndGet(i, localRemoved[i]);
+            localRemoved[i] = 0;
+        }
+        next.flush();
+    }
+
+    private boolean isRedundant(int instr) {
+        if (HackInstr.kind(instr) != HackInstr.C) {
+            if (aKind == KNOWN && aVal == instr) {
+                localRemoved[REDUNDANT_AT]++;
+                return true;
+            }
+            return false;
+        }
+        if (instr == D_EQ_M && dEqM) {
+            localRemoved[REDUNDANT_LOAD]++;
+            return true;
+        }
+        if (instr == M_EQ_D && dEqM) {
+            localRemoved[REDUNDANT_STORE]++;
+            return true;
+        }
+        // @SP A=M, while A already held *SP before the @SP
+        if (instr == A_EQ_M && size > 0 && isAtSP(window[size - 1]) && aKindBefore[size - 1] == DEREF_SP) {
+            truncate(size - 1);
+            localRemoved[REDUNDANT_DEREF] += 2;
+            return true;
+        }
+        return false;
+    }
+
+    private void rewriteTail() {
+        // @SP M=M+1 AM=M-1 => @SP A=M, the second @SP is already gone as redundant
+        if (size >= 3 && window[size - 1] == AM_EQ_M_MINUS_1 && window[size - 2] == M_EQ_M_PLUS_1
+                && isAtSP(window[size - 3])) {
+            truncate(size - 2);
+            localRemoved[SP_ROUND_TRIP]++;
+            accept(A_EQ_M);
+            return;
+        }
+        // @SP AM=M-1 X.. @SP M=M+1 => @SP A=M-1 X.., X doesn't write A or jump
+        if (size >= 5 && window[size - 1] == M_EQ_M_PLUS_1 && isAtSP(window[size - 2])) {
+            for (int i = size - 3, body = 0; i >= 1 && body <= MAX_ROUND_TRIP_BODY; i--, body++) {
+                if (window[i] == AM_EQ_M_MINUS_1 && isAtSP(window[i - 1])) {
+                    if (body == 0)
+                        return;
+                    System.arraycopy(window, i + 1, roundTripBody, 0, body);
+                    truncate(i);
+                    localRemoved[SP_ROUND_TRIP] += 2;
+                    accept(A_EQ_M_MINUS_1);
+                    for (int j = 0; j < body; j++)
+                        accept(roundTripBody[j]);
+                    return;
+                }
+                if (!isPlain(window[i]))
+                    return;
+            }
+        }
+    }
+
+    // a C instruction that doesn't write A or jump
+    private static boolean isPlain(int instr) {
+        return HackInstr.kind(instr) == HackInstr.C && !HackInstr.writesA(instr) && HackInstr.jump(instr) == 0;
+    }
+
+    private boolean isAtSP(int instr) {
+        return instr == atSP || instr == atR0 || instr == HackInstr.aConst(0);
+    }
+
+    private void append(int instr) {
+        window[size] = instr;
+        aKindBefore[size] = aKind;
+        aValBefore[size] = aVal;
+        dEqMBefore[size] = dEqM;
+        markBefore[size] = pendingMark;
+        pendingMark = NO_MARK;
+        size++;
+        step(instr);
+    }
+
+    // drop window[from..], back to the state before window[from]
+    private void truncate(int from) {
+        for (int i = size - 1; i >= from && pendingMark == NO_MARK; i--)
+            pendingMark = markBefore[i];
+        aKind = aKindBefore[from];
+        aVal = aValBefore[from];
+        dEqM = dEqMBefore[from];
+        size = from;
+    }
+
+    private void emitAll() {
+        for (int i = 0; i < size; i++)
+            emit(i);
+        size = 0;
+    }
+
+    private void emit(int i) {
+        if (markBefore[i] != NO_MARK)
+            next.accept(markBefore[i]);
+        next.accept(window[i]);
+    }
+
+    private void emitPendingMark() {
+        if (pendingMark != NO_MARK)
+            next.accept(pendingMark);
+        pendingMark = NO_MARK;
+    }
+
+    // the state after instr
+    private void step(int instr) {
+        if (HackInstr.kind(instr) != HackInstr.C) {
+            aKind = KNOWN;
+            aVal = instr;
+            dEqM = false;
+            return;
+        }
+        final int dest = HackInstr.dest(instr);
+        final boolean spWasA = aKind == KNOWN && isAtSP(aVal);
+        if ((dest & 4) != 0) {
+            // A=M, AM=M-1, AM=M+1 after @SP leave A holding *SP
+            boolean deref = spWasA && (instr == A_EQ_M || instr == AM_EQ_M_MINUS_1 || instr == AM_EQ_M_PLUS_1);
+            aKind = deref ? DEREF_SP : UNKNOWN;
+            dEqM = false;
+            return;
+        }
+        if (dest == 1) {
+            dEqM = instr == M_EQ_D;
+        } else if (dest == 2) {
+            dEqM = instr == D_EQ_M;
+        } else if (dest == 3) {
+            dEqM = true;
+        }
+    }
+}
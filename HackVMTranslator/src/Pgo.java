@@ -0,0 +1,125 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --pgo: the counts of Emulator --counts, from a build with --source-map, pick the sequence of each command.
+ * the shared routines of --shared-calls and --shared-compare save ROM and cost cycles at each run of a command,
+ * so with --pgo a cold call, return or eq/lt/gt goes through them and a hot one gets the inline sequence,
+ * and without a cold one the routines are left out, whether --shared-calls and --shared-compare are given or not;
+ * with --inline only the hot call sites are inlined. a call, return or compare is hot if it runs at least
+ * HOT_SHARE of the times the hottest one does, a command the profile doesn't know is cold.
+ * commands are known by .vm file and line, so the profile should come from a build without --inline
+ * and from the same .vm files
+ */
+public class Pgo {
+    static final double HOT_SHARE = 0.01;
+
+    // "Xxx.vm line" -> executions
+    private final Map<String, Long> runs = new HashMap<>();
+    // of the profiled build
+    private final int rom;
+    private final long cycles;
+    private final Cpu.Stop stop;
+    // the {address, value} of Emulator --set, replayed by report()
+    private final List<int[]> sets = new ArrayList<>();
+    private final long hot;
+    // {hot, all} call sites, returns, compares
+    private final int[][] sites = new int[3][2];
+
+    // counts is the output of Emulator --counts
+    public Pgo(File counts) throws IOException {
+        List<String> lines = Files.readAllLines(counts.toPath(), StandardCharsets.UTF_8);
+        // rom <words> cycles <cycles> <stop> [set <address>:<value>]...
+        final String[] head = lines.isEmpty() ? new String[0] : lines.get(0).split(" ");
+        if (head.length < 5 || head.length % 2 == 0 || !head[0].equals("rom") || !head[2].equals("cycles"))
+            throw new IllegalArgumentException(counts + " isn't the output of Emulator --counts");
+        rom = Integer.parseInt(head[1]);
+        cycles = Long.parseLong(head[3]);
+        stop = Cpu.Stop.valueOf(head[4]);
+        for (int i = 5; i < head.length; i += 2) {
+            if (!head[i].equals("set"))
+                throw new IllegalArgumentException(counts + " isn't the output of Emulator --counts");
+            sets.add(Emulator.range(head[i + 1]));
+        }
+        long max = 0;
+        for (String line : lines.subList(1, lines.size())) {
+            // <executions> <Xxx.vm> <line> <command>
+            final String[] fields = line.split(" ", 4);
+            if (fields.length < 4)
+                throw new IllegalArgumentException("not a count of a command: " + line);
+            final long n = Long.parseLong(fields[0]);
+            runs.merge(fields[1] + ' ' + fields[2], n, Math::max);
+            if (kind(fields[3]) >= 0)
+                max = Math.max(max, n);
+        }
+        hot = Math.max(1, (long) Math.ceil(max * HOT_SHARE));
+        for (String line : lines.subList(1, lines.size())) {
+            final String[] fields = line.split(" ", 4);
+            final int kind = kind(fields[3]);
+            if (kind < 0)
+                continue;
+            if (Long.parseLong(fields[0]) >= hot)
+                sites[kind][0]++;
+            sites[kind][1]++;
+        }
+    }
+
+    // 0 for a call, 1 for a return, 2 for eq/lt/gt, -1 for the commands with a single sequence
+    private static int kind(String command) {
+        if (command.startsWith("call "))
+            return 0;
+        if (command.startsWith("return"))
+            return 1;
+        return command.startsWith("eq") || command.startsWith("lt") || command.startsWith("gt") ? 2 : -1;
+    }
+
+    // a call or a return is cold, so the call routines are needed
+    public boolean coldCalls() {
+        return sites[0][0] < sites[0][1] || sites[1][0] < sites[1][1];
+    }
+
+    public boolean coldCompares() {
+        return sites[2][0] < sites[2][1];
+    }
+
+    // the command at line of file, like Xxx.vm, runs often enough for its inline sequence
+    public boolean hot(String file, int line) {
+        return runs.getOrDefault(file + ' ' + line, 0L) >= hot;
+    }
+
+    /**
+     * what the profile picked, and the ROM and cycles of the output against the profiled build
+     * @param output Xxx.asm, Xxx.hack or Xxx.bin, run up to a halt
+     */
+    public String report(File output) throws IOException {
+        final int[] words = Emulator.load(output);
+        StringBuilder report = new StringBuilder(String.format(
+                "pgo: %d of %d call sites, %d of %d returns, %d of %d compares hot (%d runs or more)%n",
+                sites[0][0], sites[0][1], sites[1][0], sites[1][1], sites[2][0], sites[2][1], hot));
+        report.append(String.format("pgo: rom %d -> %d words (%+.1f%%)", rom, words.length,
+                (words.length - rom) * 100.0 / rom));
+        if (stop != Cpu.Stop.HALT)
+            return report.append(", cycles not compared, the profiled run didn't halt").toString();
+        Cpu cpu = new Cpu(words);
+        // the RAM the profiled run started with
+        for (int[] set : sets)
+            cpu.ram[set[0]] = (short) set[1];
+        // well past the profiled run, for a build that never halts
+        final Cpu.Stop halted = cpu.run(cycles * 4 + 1000);
+        if (halted != Cpu.Stop.HALT)
+            return report.append(", no halt in ").append(cpu.cycles).append(" cycles").toString();
+        return report.append(String.format(", cycles %d -> %d (%+.1f%%)", cycles, cpu.cycles,
+                (cpu.cycles - cycles) * 100.0 / cycles)).toString();
+    }
+}
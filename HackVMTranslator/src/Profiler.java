@@ -0,0 +1,205 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * --profile for Emulator: the cycles of a run per VM function and call stack.
+ * Emulator runs interval cycles at a time and hands each stop to sample(), which gives them to the stack there:
+ * the function of pc from the Xxx.map of --source-map, then up the frames writeCall builds,
+ * the return address at LCL - 5 and the LCL of the caller at LCL - 4, up to the frame of the bootstrap.
+ * a caller is the function of the jump before its return address, the call itself.
+ * a frame whose call is the command at pc is still being built and left out.
+ * so a stack is as exact as the interval is short, and a sample in the middle of a return may miss a frame,
+ * as does one in the shared routines of --shared-calls and the like: they show as routines on top of the frames.
+ * inlined code belongs to the function it was inlined into.
+ * written as collapsed stacks for flamegraph.pl and the like, root first:
+ *   Sys.init;Main.main;Main.fib 1200
+ * count() is exact instead: it runs a block of Cpu at a time and counts how often each starts,
+ * for writeCounts(), the executions of each VM command for --pgo, see Pgo
+ */
+public class Profiler {
+    private static final int MAX_DEPTH = 1024;
+    private static final String UNKNOWN = "?";
+
+    private final List<String> names = new ArrayList<>();
+    // ROM address -> function id
+    private final int[] functionAt = new int[Cpu.MEMORY_SIZE];
+    // ROM address -> the line of its range in the map
+    private final int[] rangeAt = new int[Cpu.MEMORY_SIZE];
+    // the ranges of the .vm commands: their first address and "<file> <line> <command>"
+    private final List<Integer> commandFrom = new ArrayList<>();
+    private final List<String> commands = new ArrayList<>();
+    private final int bootstrap;
+    // the function ids of a stack, root first, joined by ';' -> cycles
+    private final Map<String, long[]> stacks = new HashMap<>();
+    private final int[] stack = new int[MAX_DEPTH];
+    private final StringBuilder key = new StringBuilder();
+    private long total;
+
+    // map is the Xxx.map --source-map wrote with the program
+    public Profiler(File map) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        ids.put(UNKNOWN, 0);
+        names.add(UNKNOWN);
+        List<String> files = new ArrayList<>();
+        int range = 0;
+        for (String line : Files.readAllLines(map.toPath(), StandardCharsets.UTF_8)) {
+            range++;
+            if (line.startsWith("file ")) {
+                files.add(line.substring(line.indexOf(' ', "file ".length()) + 1));
+                continue;
+            }
+            if (line.isEmpty())
+                continue;
+            // from to fileId line function command
+            final String[] fields = line.split(" ", 6);
+            if (fields.length < 5)
+                throw new IllegalArgumentException("not a range of a source map: " + line);
+            final int from = Integer.parseInt(fields[0]);
+            final int to = Integer.parseInt(fields[1]);
+            if (from < 0 || to > Cpu.MEMORY_SIZE || from > to)
+                throw new IllegalArgumentException("not a range of ROM: " + line);
+            final int id = ids.computeIfAbsent(fields[4], name -> {
+                names.add(name);
+                return names.size() - 1;
+            });
+            Arrays.fill(functionAt, from, to, id);
+            Arrays.fill(rangeAt, from, to, range);
+            final int file = Integer.parseInt(fields[2]);
+            if (file != SourceMap.NO_FILE && fields.length == 6) {
+                commandFrom.add(from);
+                commands.add(files.get(file) + ' ' + fields[3] + ' ' + fields[5]);
+            }
+        }
+        bootstrap = ids.getOrDefault(Metrics.BOOTSTRAP, -1);
+    }
+
+    // cycles ran up to the state of cpu
+    public void sample(Cpu cpu, long cycles) {
+        if (cycles <= 0)
+            return;
+        final short[] ram = cpu.ram;
+        int depth = 0;
+        final int pc = cpu.pc & 0x7FFF;
+        stack[depth++] = functionAt[pc];
+        // the bootstrap has no frame
+        if (stack[0] != bootstrap) {
+            int lcl = ram[1];
+            if (lcl >= 5 && ram[lcl - 5] > 0 && rangeAt[ram[lcl - 5] - 1] == rangeAt[pc])
+                lcl = ram[lcl - 4];
+            while (depth < MAX_DEPTH && lcl >= 5) {
+                final int call = ram[lcl - 5] - 1;
+                if (call < 0 || functionAt[call] == bootstrap || functionAt[call] == 0)
+                    break;
+                stack[depth++] = functionAt[call];
+                lcl = ram[lcl - 4];
+            }
+        }
+        key.setLength(0);
+        for (int i = depth - 1; i >= 0; i--)
+            key.append(stack[i]).append(i == 0 ? "" : ";");
+        stacks.computeIfAbsent(key.toString(), k -> new long[1])[0] += cycles;
+        total += cycles;
+    }
+
+    // the collapsed stacks, one per line
+    public void writeFolded(File out) throws IOException {
+        Map<String, Long> folded = new TreeMap<>();
+        for (Map.Entry<String, long[]> e : stacks.entrySet()) {
+            StringBuilder line = new StringBuilder();
+            for (String id : e.getKey().split(";"))
+                line.append(line.length() == 0 ? "" : ";").append(names.get(Integer.parseInt(id)));
+            folded.merge(line.toString(), e.getValue()[0], Long::sum);
+        }
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> e : folded.entrySet())
+            text.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        Files.write(out.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // the n functions with the most cycles of their own, with the cycles of the calls they make
+    public String top(int n) {
+        final long[] self = new long[names.size()];
+        final long[] inclusive = new long[names.size()];
+        final boolean[] seen = new boolean[names.size()];
+        for (Map.Entry<String, long[]> e : stacks.entrySet()) {
+            final String[] ids = e.getKey().split(";");
+            final long cycles = e.getValue()[0];
+            self[Integer.parseInt(ids[ids.length - 1])] += cycles;
+            // a recursive function counts once per stack
+            Arrays.fill(seen, false);
+            for (String id : ids) {
+                final int f = Integer.parseInt(id);
+                if (!seen[f])
+                    inclusive[f] += cycles;
+                seen[f] = true;
+            }
+        }
+        Integer[] order = new Integer[names.size()];
+        for (int f = 0; f < order.length; f++)
+            order[f] = f;
+        Arrays.sort(order, (f, g) -> Long.compare(self[g], self[f]));
+        StringBuilder table = new StringBuilder(String.format("%7s %7s %14s  %s%n", "self", "total", "self cycles", "function"));
+        for (int i = 0; i < Math.min(n, order.length) && self[order[i]] > 0; i++) {
+            final int f = order[i];
+            table.append(String.format("%6.2f%% %6.2f%% %14d  %s%n", self[f] * 100.0 / total,
+                    inclusive[f] * 100.0 / total, self[f], names.get(f)));
+        }
+        return table.toString();
+    }
+
+    /**
+     * run cpu like Cpu.run, counting the starts of its blocks
+     * @param words those cpu was made with
+     * @param starts the starts of each address, added to
+     */
+    public static Cpu.Stop count(Cpu cpu, int[] words, long maxCycles, long[] starts) {
+        final long limit = maxCycles > Long.MAX_VALUE - cpu.cycles ? Long.MAX_VALUE : cpu.cycles + maxCycles;
+        while (cpu.cycles < limit) {
+            final int pc = cpu.pc;
+            starts[pc]++;
+            final Cpu.Stop stop = cpu.run(Math.min(Math.max(Jit.blockEnd(words, pc) - pc, 1), limit - cpu.cycles));
+            if (stop != Cpu.Stop.LIMIT)
+                return stop;
+        }
+        return Cpu.Stop.LIMIT;
+    }
+
+    /**
+     * the executions of each .vm command, those of the first instruction of its range:
+     *   rom <words> cycles <cycles> <stop> [set <address>:<value>]...
+     *   <executions> <Xxx.vm> <line> <command>
+     * @param starts from count()
+     * @param sets the {address, value} of Emulator --set the run started with
+     */
+    public void writeCounts(File out, int[] words, long[] starts, long cycles, Cpu.Stop stop, List<int[]> sets)
+            throws IOException {
+        // a block runs whole, so an address runs as often as the blocks over it start
+        final long[] runs = new long[words.length + 1];
+        for (int pc = 0; pc < words.length; pc++) {
+            if (starts[pc] > 0) {
+                runs[pc] += starts[pc];
+                runs[Jit.blockEnd(words, pc)] -= starts[pc];
+            }
+        }
+        for (int pc = 1; pc < runs.length; pc++)
+            runs[pc] += runs[pc - 1];
+        StringBuilder text = new StringBuilder();
+        text.append("rom ").append(words.length).append(" cycles ").append(cycles).append(' ').append(stop);
+        for (int[] set : sets)
+            text.append(" set ").append(set[0]).append(':').append(set[1]);
+        text.append('\n');
+        for (int r = 0; r < commands.size(); r++) {
+            final int from = commandFrom.get(r);
+            text.append(from < words.length ? runs[from] : 0).append(' ').append(commands.get(r)).append('\n');
+        }
+        Files.write(out.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
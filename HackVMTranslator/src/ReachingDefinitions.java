@@ -0,0 +1,96 @@
+import java.util.BitSet;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * the definitions of the Slots that may reach each command of a function.
+ * a definition is the index of the pop or the call that writes the slot,
+ * or entry(slot) for the value it has when the function starts
+ */
+public final class ReachingDefinitions {
+    private final VmFunction f;
+    private final BitSet[] before;
+    // slot -> the definitions that may write it
+    private final BitSet[] defsOf;
+
+    public ReachingDefinitions(Cfg cfg) {
+        f = cfg.function;
+        final int n = cfg.size();
+        final int nSlots = Slots.count(f);
+        defsOf = new BitSet[nSlots];
+        BitSet entry = new BitSet();
+        for (int s = 0; s < nSlots; s++) {
+            defsOf[s] = new BitSet();
+            defsOf[s].set(entry(s));
+            entry.set(entry(s));
+        }
+        // the commands that may write a slot, but don't always
+        boolean[] clobbers = new boolean[f.size()];
+        BitSet clobbered = new BitSet();
+        for (int i = 0; i < f.size(); i++) {
+            final int def = Slots.def(f, i);
+            if (def >= 0) {
+                defsOf[def].set(i);
+                continue;
+            }
+            clobbered.clear();
+            Slots.clobbers(f, i, nSlots, clobbered);
+            clobbers[i] = !clobbered.isEmpty();
+            for (int s = clobbered.nextSetBit(0); s >= 0; s = clobbered.nextSetBit(s + 1))
+                defsOf[s].set(i);
+        }
+
+        BitSet[] gen = new BitSet[n];
+        BitSet[] kill = new BitSet[n];
+        for (int b = 0; b < n; b++) {
+            gen[b] = new BitSet();
+            kill[b] = new BitSet();
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                final int def = Slots.def(f, i);
+                if (def >= 0) {
+                    gen[b].andNot(defsOf[def]);
+                    kill[b].or(defsOf[def]);
+                    gen[b].set(i);
+                } else if (clobbers[i]) {
+                    // a call or pop this/that may leave a slot as it was, so it adds a definition but kills none
+                    gen[b].set(i);
+                }
+            }
+        }
+        Dataflow reach = Dataflow.forward(cfg, gen, kill, entry);
+
+        before = new BitSet[f.size()];
+        for (int b = 0; b < n; b++) {
+            BitSet x = (BitSet) reach.in[b].clone();
+            for (int i = cfg.start(b); i < cfg.end(b); i++) {
+                before[i] = (BitSet) x.clone();
+                final int def = Slots.def(f, i);
+                if (def >= 0) {
+                    x.andNot(defsOf[def]);
+                    x.set(i);
+                } else if (clobbers[i]) {
+                    x.set(i);
+                }
+            }
+        }
+    }
+
+    // the definition of slot when the function starts
+    public int entry(int slot) {
+        return f.size() + slot;
+    }
+
+    public boolean isEntry(int def) {
+        return def >= f.size();
+    }
+
+    // the definitions of slot that may reach command i
+    public BitSet reaching(int slot, int i) {
+        BitSet defs = (BitSet) before[i].clone();
+        defs.and(defsOf[slot]);
+        return defs;
+    }
+}
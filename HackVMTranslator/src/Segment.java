@@ -0,0 +1,61 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+// VM memory segment, stored as its ordinal in VmFunction
+public enum Segment {
+    LOCAL("local", "LCL"),
+    ARGUMENT("argument", "ARG"),
+    THIS("this", "THIS"),
+    THAT("that", "THAT"),
+    CONSTANT("constant", null),
+    STATIC("static", null),
+    TEMP("temp", null),
+    POINTER("pointer", null);
+
+    static final Segment[] VALUES = values();
+
+    public final String text;
+    private final byte[] bytes;
+    // base address register of local/argument/this/that, null for the others
+    final byte[] label;
+
+    Segment(String text, String label) {
+        this.text = text;
+        this.bytes = AsmOutput.ascii(text);
+        this.label = label == null ? null : AsmOutput.ascii(label);
+    }
+
+    public static Segment of(String text) {
+        switch (text) {
+            case "local": return LOCAL;
+            case "argument": return ARGUMENT;
+            case "this": return THIS;
+            case "that": return THAT;
+            case "constant": return CONSTANT;
+            case "static": return STATIC;
+            case "temp": return TEMP;
+            case "pointer": return POINTER;
+            default:
+                throw new IllegalArgumentException("seg = " + text);
+        }
+    }
+
+    // of(String) without the String, for the byte scanner
+    public static Segment of(byte[] buf, int off, int len) {
+        for (Segment seg : VALUES) {
+            if (Arrays.equals(seg.bytes, 0, seg.bytes.length, buf, off, off + len))
+                return seg;
+        }
+        throw new IllegalArgumentException("seg = " + new String(buf, off, len, StandardCharsets.US_ASCII));
+    }
+
+    // addressed through a base register, like *LCL + i
+    public boolean isCommon() {
+        return label != null;
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.BitSet;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * the segment slots the dataflow passes track, as bit numbers:
+ * temp i is i, pointer i is 8 + i, local i is 10 + i.
+ * a call may read and write the temps, which are global, and read the pointers, which the callee inherits;
+ * a return leaves the temps to the caller, its pointers are restored.
+ * this/that may point at any slot, like a local of the frame at a known address: push this/that may read
+ * every slot and pop this/that may write every one. so may a call read the locals, and write them,
+ * as the callee can reach the frame of its caller the same way
+ */
+public final class Slots {
+    public static final int TEMPS = 8;
+    public static final int POINTER = 8;
+    public static final int LOCAL = 10;
+
+    private Slots() {
+    }
+
+    /**
+     * @return the slot of seg index, -1 if it isn't tracked
+     */
+    public static int of(Segment seg, int index) {
+        switch (seg) {
+            case TEMP:
+                return index < TEMPS ? index : -1;
+            case POINTER:
+                return index < 2 ? POINTER + index : -1;
+            case LOCAL:
+                return LOCAL + index;
+            default:
+                return -1;
+        }
+    }
+
+    // the number of slots of f, its locals included
+    public static int count(VmFunction f) {
+        int locals = f.nLocals;
+        for (int i = 0; i < f.size(); i++) {
+            if (f.segment(i) == Segment.LOCAL)
+                locals = Math.max(locals, f.index(i) + 1);
+        }
+        return LOCAL + locals;
+    }
+
+    // the slot command i of f writes, -1 if none
+    public static int def(VmFunction f, int i) {
+        return f.op(i) == Op.POP ? of(f.segment(i), f.index(i)) : -1;
+    }
+
+    // add the slots command i of f may read to uses, nSlots is count(f)
+    public static void uses(VmFunction f, int i, int nSlots, BitSet uses) {
+        switch (f.op(i)) {
+            case PUSH:
+            case POP:
+                Segment seg = f.segment(i);
+                if (isIndirect(seg)) {
+                    uses.set(POINTER + (seg == Segment.THIS ? 0 : 1));
+                    if (f.op(i) == Op.PUSH)
+                        uses.set(0, nSlots);
+                } else if (f.op(i) == Op.PUSH && of(seg, f.index(i)) >= 0) {
+                    uses.set(of(seg, f.index(i)));
+                }
+                break;
+            case CALL:
+                uses.set(0, nSlots);
+                break;
+            case RETURN:
+                uses.set(0, TEMPS);
+                break;
+            default:
+        }
+    }
+
+    // add the slots command i of f may write, but doesn't always, to clobbered, nSlots is count(f)
+    public static void clobbers(VmFunction f, int i, int nSlots, BitSet clobbered) {
+        if (f.op(i) == Op.CALL) {
+            clobbered.set(0, TEMPS);
+            clobbered.set(LOCAL, nSlots);
+        } else if (f.op(i) == Op.POP && isIndirect(f.segment(i))) {
+            clobbered.set(0, nSlots);
+        }
+    }
+
+    // this/that, which go through a pointer
+    private static boolean isIndirect(Segment seg) {
+        return seg == Segment.THIS || seg == Segment.THAT;
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --source-map: the .vm file, line, command and function each range of ROM addresses comes from.
+ * CodeWriter puts a mark in front of the asm of each command, the mark goes along the asm through
+ * the fragments and the passes, and the last stage places it at a ROM address:
+ * AsmOutput as it writes the .asm, HackEncoder as it assembles. so the ranges are those of the output,
+ * Peephole included. the asm StackCacheWriter holds back belongs to the command it is written at.
+ * written as text next to the output, one range per line:
+ *   file <file id> <Xxx.vm>
+ *   <from> <to> <file id> <line> <function> <command>
+ * ranges are [from, to) in ROM order, a command without instructions has none.
+ * the bootstrap has file id -1, the code at the end of a file line 0
+ */
+public class SourceMap {
+    public static final int NO_FILE = -1;
+
+    private final Map<String, Integer> fileIds = new HashMap<>();
+    private final List<String> files = new ArrayList<>();
+    // per command id
+    private int[] fileOf = new int[256];
+    private int[] lineOf = new int[256];
+    private String[] functionOf = new String[256];
+    private String[] textOf = new String[256];
+    private int nCommands;
+    // ranges[r] starts at from[r] and runs up to the next one, or to end
+    private int[] from = new int[256];
+    private int[] commandOf = new int[256];
+    private int nRanges;
+    private int end;
+
+    /**
+     * a command, or a few written together, for CodeWriter
+     * @param file like Xxx.vm, null for the bootstrap
+     * @return the id of its mark
+     */
+    public synchronized int command(String file, int line, String function, String text) {
+        if (nCommands == fileOf.length) {
+            final int cap = nCommands * 2;
+            fileOf = Arrays.copyOf(fileOf, cap);
+            lineOf = Arrays.copyOf(lineOf, cap);
+            functionOf = Arrays.copyOf(functionOf, cap);
+            textOf = Arrays.copyOf(textOf, cap);
+        }
+        fileOf[nCommands] = file == null ? NO_FILE : fileIds.computeIfAbsent(file, f -> {
+            files.add(f);
+            return files.size() - 1;
+        });
+        lineOf[nCommands] = line;
+        functionOf[nCommands] = function;
+        textOf[nCommands] = text;
+        return nCommands++;
+    }
+
+    // the instructions from address on come from command id, called by the last stage in ROM order
+    public void at(int id, int address) {
+        // the commands before have no instructions
+        if (nRanges > 0 && from[nRanges - 1] == address) {
+            commandOf[nRanges - 1] = id;
+            return;
+        }
+        if (nRanges == from.length) {
+            from = Arrays.copyOf(from, nRanges * 2);
+            commandOf = Arrays.copyOf(commandOf, nRanges * 2);
+        }
+        from[nRanges] = address;
+        commandOf[nRanges] = id;
+        nRanges++;
+    }
+
+    // the size of the ROM
+    public void end(int address) {
+        end = address;
+    }
+
+    public void write(File out) throws IOException {
+        StringBuilder map = new StringBuilder();
+        for (int f = 0; f < files.size(); f++)
+            map.append("file ").append(f).append(' ').append(files.get(f)).append('\n');
+        for (int r = 0; r < nRanges; r++) {
+            final int to = r + 1 < nRanges ? from[r + 1] : end;
+            if (to == from[r])
+                continue;
+            final int id = commandOf[r];
+            map.append(from[r]).append(' ').append(to).append(' ').append(fileOf[id]).append(' ')
+                    .append(lineOf[id]).append(' ').append(functionOf[id]).append(' ').append(textOf[id]).append('\n');
+        }
+        Files.write(out.toPath(), map.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
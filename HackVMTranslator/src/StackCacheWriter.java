@@ -0,0 +1,339 @@
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --stack-cache code generation: within a straight-line run of VM commands,
+ * SP is tracked at compile time and the top of stack is kept in D.
+ * the virtual stack is RAM[*SP .. *SP+delta-1], plus D when cached.
+ * SP is written back and D spilled only at labels, branches, calls, returns and the end of a file.
+ */
+public class StackCacheWriter extends CodeWriter {
+    // |delta| above this is written back to SP, so addressing a slot stays a few A=A+1
+    private static final int MAX_DELTA = 3;
+    // pop local i with i up to this addresses the slot by A=A+1 instead of through R13
+    private static final int MAX_INCR_OFFSET = 6;
+
+    private static final byte[] AT_SP = AsmOutput.ascii("@SP\n");
+    private static final byte[] A_EQ_M = AsmOutput.ascii("A=M\n");
+    private static final byte[] A_EQ_M_PLUS_1 = AsmOutput.ascii("A=M+1\n");
+    private static final byte[] A_EQ_M_MINUS_1 = AsmOutput.ascii("A=M-1\n");
+    private static final byte[] A_EQ_A_PLUS_1 = AsmOutput.ascii("A=A+1\n");
+    private static final byte[] A_EQ_A_MINUS_1 = AsmOutput.ascii("A=A-1\n");
+    private static final byte[] M_EQ_M_PLUS_1 = AsmOutput.ascii("M=M+1\n");
+    private static final byte[] M_EQ_M_MINUS_1 = AsmOutput.ascii("M=M-1\n");
+    private static final byte[] M_EQ_D = AsmOutput.ascii("M=D\n");
+    private static final byte[] D_EQ_M = AsmOutput.ascii("D=M\n");
+    private static final byte[] NL_D_EQ_M = AsmOutput.ascii("\nD=M\n");
+    private static final byte[] NL_M_EQ_D = AsmOutput.ascii("\nM=D\n");
+    private static final byte[] NL_M_EQ_M_PLUS_D = AsmOutput.ascii("\nD=A\n@SP\nM=M+D\n");
+    private static final byte[] NL_M_EQ_M_MINUS_D = AsmOutput.ascii("\nD=A\n@SP\nM=M-D\n");
+    private static final byte[] NL_A_EQ_D_PLUS_A_D_EQ_M = AsmOutput.ascii("\nA=D+A\nD=M\n");
+    private static final byte[] NL_D_EQ_D_PLUS_A_LET_R13 = AsmOutput.ascii("\nD=D+A\n@R13\nM=D\n");
+    private static final byte[] LET_GO_R13_EQ_D = AsmOutput.ascii("@R13\nA=M\nM=D\n");
+    private static final byte[] STASH_D = AsmOutput.ascii("@R13\nM=D\n");
+    private static final byte[] UNSTASH_D = AsmOutput.ascii("@R13\nD=M\n");
+    private static final byte[] D_EQ_D_PLUS_M = AsmOutput.ascii("D=D+M\n");
+    private static final byte[] D_EQ_M_MINUS_D = AsmOutput.ascii("D=M-D\n");
+    private static final byte[] D_EQ_D_AND_M = AsmOutput.ascii("D=D&M\n");
+    private static final byte[] D_EQ_D_OR_M = AsmOutput.ascii("D=D|M\n");
+    private static final byte[] D_EQ_NEG_D = AsmOutput.ascii("D=-D\n");
+    private static final byte[] D_EQ_NOT_D = AsmOutput.ascii("D=!D\n");
+    private static final byte[] M_EQ_NEG_M = AsmOutput.ascii("M=-M\n");
+    private static final byte[] M_EQ_NOT_M = AsmOutput.ascii("M=!M\n");
+    private static final byte[] M_EQ_0 = AsmOutput.ascii("M=0\n");
+    private static final byte[] JEQ = AsmOutput.ascii("\nD;JEQ\n");
+    private static final byte[] JLT = AsmOutput.ascii("\nD;JLT\n");
+    private static final byte[] JGT = AsmOutput.ascii("\nD;JGT\n");
+    private static final byte[] D_EQ_0_JUMP = AsmOutput.ascii("D=0\n@");
+    private static final byte[] NL_JMP = AsmOutput.ascii("\n0;JMP\n");
+    private static final byte[] D_EQ_TRUE = AsmOutput.ascii(")\nD=-1\n");
+    private static final byte[] CLOSE_LABEL = AsmOutput.ascii(")\n");
+    private static final byte[] END_COMPARE_LABEL_SUFFIX = AsmOutput.ascii(".end");
+    private static final byte[] NL_D_JNE = AsmOutput.ascii("\nD;JNE\n");
+    private static final byte[] RETURN_SAVE_FRAME = AsmOutput.ascii(RETURN_SAVE_FRAME_LINES);
+    private static final byte[] LET_GO_ARG_EQ_D = AsmOutput.ascii("@ARG\nA=M\nM=D\n");
+    private static final byte[] RETURN_RESTORE_FRAME = AsmOutput.ascii(RETURN_RESTORE_FRAME_LINES);
+
+    // virtual SP = *SP + delta
+    private int delta;
+    // the top of stack is in D only
+    private boolean cached;
+
+    public StackCacheWriter(AsmOutput out, Options opts) {
+        super(out, opts);
+    }
+
+    @Override
+    void endFile() {
+        writeBack();
+    }
+
+    // a call of a routine of --shared-compare, with the write-back before it, is longer than the inline compare
+    @Override
+    int compareSiteSaving() {
+        return 0;
+    }
+
+    @Override
+    void writePush(Segment seg, int i) {
+        spill();
+        if (seg.isCommon()) {
+            out.put('@').put(seg.label);
+            if (i == 0) {
+                out.put('\n').put(A_EQ_M).put(D_EQ_M);
+            } else if (i == 1) {
+                out.put('\n').put(A_EQ_M_PLUS_1).put(D_EQ_M);
+            } else {
+                out.put(NL_D_EQ_M).put('@').putInt(i).put(NL_A_EQ_D_PLUS_A_D_EQ_M);
+            }
+        } else if (seg == Segment.CONSTANT) {
+            letDEqConstant(i);
+        } else if (seg == Segment.STATIC) {
+            atStatic(i);
+            out.put(NL_D_EQ_M);
+        } else if (seg == Segment.TEMP) {
+            out.put('@').putInt(5 + i).put(NL_D_EQ_M);
+        } else if (seg == Segment.POINTER) {
+            atPointer(i);
+            out.put(NL_D_EQ_M);
+        } else throw new IllegalArgumentException("seg = " + seg);
+        cached = true;
+        normalize();
+    }
+
+    @Override
+    void writePop(Segment seg, int i) {
+        if (seg.isCommon()) {
+            if (i <= MAX_INCR_OFFSET) {
+                popToD();
+                out.put('@').put(seg.label).put('\n').put(i == 0 ? A_EQ_M : A_EQ_M_PLUS_1);
+                for (int k = 1; k < i; k++)
+                    out.put(A_EQ_A_PLUS_1);
+                out.put(M_EQ_D);
+            } else {
+                // R13 = *label + i needs D
+                spill();
+                out.put('@').put(seg.label).put(NL_D_EQ_M).put('@').putInt(i).put(NL_D_EQ_D_PLUS_A_LET_R13);
+                popToD();
+                out.put(LET_GO_R13_EQ_D);
+            }
+        } else if (seg == Segment.STATIC) {
+            popToD();
+            atStatic(i);
+            out.put(NL_M_EQ_D);
+        } else if (seg == Segment.TEMP) {
+            popToD();
+            out.put('@').putInt(5 + i).put(NL_M_EQ_D);
+        } else if (seg == Segment.POINTER) {
+            popToD();
+            atPointer(i);
+            out.put(NL_M_EQ_D);
+        } else throw new IllegalArgumentException("seg = " + seg);
+        normalize();
+    }
+
+    @Override
+    void writeArithmetic(Op op) {
+        switch (op) {
+            case NEG:
+            case NOT:
+                if (cached) {
+                    out.put(op == Op.NEG ? D_EQ_NEG_D : D_EQ_NOT_D);
+                } else {
+                    atSlot(delta - 1);
+                    out.put(op == Op.NEG ? M_EQ_NEG_M : M_EQ_NOT_M);
+                }
+                return;
+            case ADD:
+            case SUB:
+            case AND:
+            case OR:
+                popToD();
+                atSlot(delta - 1);
+                out.put(binaryOperation(op));
+                delta--;
+                cached = true;
+                return;
+            case EQ:
+            case LT:
+            case GT:
+                popToD();
+                atSlot(delta - 1);
+                out.put(D_EQ_M_MINUS_D);
+                delta--;
+                writeCompareJump(op);
+                cached = true;
+                return;
+            default:
+                throw new IllegalArgumentException("op = " + op);
+        }
+    }
+
+    @Override
+    void writeBranching(Op op, byte[] label) {
+        if (op == Op.IF_GOTO) {
+            popToD();
+            writeBackSP();
+            out.put('@');
+            putLabel(label);
+            out.put(NL_D_JNE);
+            return;
+        }
+        writeBack();
+        super.writeBranching(op, label);
+    }
+
+    @Override
+    void writeCompareBranch(Op op, boolean negated, byte[] label) {
+        popToD();
+        atSlot(delta - 1);
+        out.put(D_EQ_M_MINUS_D);
+        delta--;
+        writeBackSP();
+        out.put('@');
+        putLabel(label);
+        out.put(branchJump(op, negated));
+    }
+
+    @Override
+    void writeCall(byte[] calledFuncName, int nArgs) {
+        writeBack();
+        super.writeCall(calledFuncName, nArgs);
+    }
+
+    @Override
+    void writeTailCall(byte[] calledFuncName, int nArgs) {
+        writeBack();
+        super.writeTailCall(calledFuncName, nArgs);
+    }
+
+    @Override
+    void writeFunc(byte[] funcName, int m, int zeroed) {
+        writeBack();
+        if (m > MAX_DELTA) {
+            super.writeFunc(funcName, m, zeroed);
+            return;
+        }
+        super.writeFunc(funcName, 0, 0);
+        // the locals are the first m slots of the virtual stack, the first zeroed of them set to 0
+        for (int i = 0; i < zeroed; i++) {
+            atSlot(i);
+            out.put(M_EQ_0);
+        }
+        delta = m;
+    }
+
+    @Override
+    void writeReturn() {
+        if (sharedCalls()) {
+            writeBack();
+            super.writeReturn();
+            return;
+        }
+        spill();
+        out.put(RETURN_SAVE_FRAME);
+        // *ARG = pop(), SP is then set from ARG
+        atSlot(delta - 1);
+        out.put(D_EQ_M).put(LET_GO_ARG_EQ_D).put(RETURN_RESTORE_FRAME);
+        delta = 0;
+    }
+
+    // ========== helper methods
+
+    // A = *SP + k, D is kept
+    private void atSlot(int k) {
+        out.put(AT_SP);
+        if (k == 0) {
+            out.put(A_EQ_M);
+        } else if (k > 0) {
+            out.put(A_EQ_M_PLUS_1);
+            for (int i = 1; i < k; i++)
+                out.put(A_EQ_A_PLUS_1);
+        } else {
+            out.put(A_EQ_M_MINUS_1);
+            for (int i = -1; i > k; i--)
+                out.put(A_EQ_A_MINUS_1);
+        }
+    }
+
+    // store the cached top of stack to its slot
+    private void spill() {
+        if (!cached)
+            return;
+        atSlot(delta);
+        out.put(M_EQ_D);
+        delta++;
+        cached = false;
+    }
+
+    // D = pop()
+    private void popToD() {
+        if (cached) {
+            cached = false;
+            return;
+        }
+        atSlot(delta - 1);
+        out.put(D_EQ_M);
+        delta--;
+    }
+
+    // the stack is back in RAM and SP is exact
+    private void writeBack() {
+        spill();
+        if (delta > MAX_DELTA || delta < -MAX_DELTA) {
+            out.put('@').putInt(Math.abs(delta)).put(delta > 0 ? NL_M_EQ_M_PLUS_D : NL_M_EQ_M_MINUS_D);
+            delta = 0;
+        } else {
+            writeBackSP();
+        }
+    }
+
+    // SP = *SP + delta, D is kept
+    private void writeBackSP() {
+        if (delta == 0)
+            return;
+        if (delta > MAX_DELTA + 1 || delta < -MAX_DELTA - 1) {
+            out.put(STASH_D).put('@').putInt(Math.abs(delta))
+                    .put(delta > 0 ? NL_M_EQ_M_PLUS_D : NL_M_EQ_M_MINUS_D).put(UNSTASH_D);
+        } else {
+            out.put(AT_SP);
+            for (int i = 0; i < Math.abs(delta); i++)
+                out.put(delta > 0 ? M_EQ_M_PLUS_1 : M_EQ_M_MINUS_1);
+        }
+        delta = 0;
+    }
+
+    private void normalize() {
+        if (delta > MAX_DELTA || delta < -MAX_DELTA)
+            writeBackSP();
+    }
+
+    // D = D jump ? -1 : 0, the labels are local to this run
+    private void writeCompareJump(Op op) {
+        out.put('@');
+        putCompareLabel();
+        out.put(op == Op.EQ ? JEQ : op == Op.LT ? JLT : JGT).put(D_EQ_0_JUMP);
+        putCompareLabel();
+        out.put(END_COMPARE_LABEL_SUFFIX).put(NL_JMP).put('(');
+        putCompareLabel();
+        out.put(D_EQ_TRUE).put('(');
+        putCompareLabel();
+        out.put(END_COMPARE_LABEL_SUFFIX).put(CLOSE_LABEL);
+        currCompareCount++;
+    }
+
+    private static byte[] binaryOperation(Op op) {
+        switch (op) {
+            case ADD:
+                return D_EQ_D_PLUS_M;
+            case SUB:
+                return D_EQ_M_MINUS_D;
+            case AND:
+                return D_EQ_D_AND_M;
+            default:
+                return D_EQ_D_OR_M;
+        }
+    }
+}
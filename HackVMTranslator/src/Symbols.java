@@ -0,0 +1,79 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+// interned pool of ascii symbols, like labels and function names.
+// interning a byte range that is already in the pool allocates nothing
+public class Symbols {
+    private byte[][] names = new byte[64][];
+    private int size;
+    // open addressing, id + 1 per slot, 0 = empty
+    private int[] slots = new int[128];
+
+    public int intern(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        return intern(bytes, 0, bytes.length);
+    }
+
+    public int intern(byte[] buf, int off, int len) {
+        int mask = slots.length - 1;
+        for (int i = hash(buf, off, len) & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) {
+                return add(Arrays.copyOfRange(buf, off, off + len), i);
+            }
+            byte[] name = names[slot - 1];
+            if (Arrays.equals(name, 0, name.length, buf, off, off + len))
+                return slot - 1;
+        }
+    }
+
+    // assume 0 <= id < size()
+    public byte[] bytes(int id) {
+        return names[id];
+    }
+
+    public String name(int id) {
+        return new String(names[id], StandardCharsets.US_ASCII);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int add(byte[] name, int slot) {
+        if (size == names.length)
+            names = Arrays.copyOf(names, size * 2);
+        names[size] = name;
+        slots[slot] = ++size;
+        if (size * 2 > slots.length)
+            rehash();
+        return size - 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            byte[] name = names[id];
+            int i = hash(name, 0, name.length) & mask;
+            while (slots[i] != 0)
+                i = (i + 1) & mask;
+            slots[i] = id + 1;
+        }
+    }
+
+    // FNV-1a
+    private static int hash(byte[] buf, int off, int len) {
+        int h = 0x811c9dc5;
+        for (int i = off; i < off + len; i++) {
+            h ^= buf[i];
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
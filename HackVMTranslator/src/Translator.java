@@ -0,0 +1,301 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+// drives a translation for Main and VMTranslator: bootstrap, the .vm files in order,
+// and the passes between CodeWriter and the .asm file
+public class Translator {
+    // parse one .vm file into the IR, like Parser or the ANTLR listener
+    public interface FrontEnd {
+        // content holds the bytes of vmFile, so a caller can hash the very bytes that are parsed
+        VmFile parse(File vmFile, ByteBuffer content);
+
+        // from a mapping of vmFile, which stays valid after the channel is closed
+        default VmFile parse(File vmFile) throws IOException {
+            try (FileChannel channel = FileChannel.open(vmFile.toPath(), StandardOpenOption.READ)) {
+                return parse(vmFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+    }
+
+    private final Options opts;
+    private final FrontEnd frontEnd;
+    private final AtomicLongArray peepholeRemoved = new AtomicLongArray(Peephole.RULES.length);
+    // the eq, lt, gt with a routine of --shared-compare or --pgo, null for none, see CodeWriter.compareRoutines
+    private boolean[] compareRoutines;
+    private final AtomicLong foldRemoved = new AtomicLong();
+    // null without --dead-stores
+    private final DeadStores deadStores;
+    // null without --metrics
+    private final Metrics metrics;
+    // null without --source-map
+    private final SourceMap sourceMap;
+    // null without --cache or a cache of Daemon, and with --source-map, --metrics or --pgo
+    private FragmentCache cache;
+    // null without --pgo, read by run()
+    private Pgo pgo;
+
+    public Translator(Options opts, FrontEnd frontEnd) {
+        this(opts, frontEnd, null);
+    }
+
+    /**
+     * @param cache reused across the runs of a Daemon, null to open the one of --cache
+     */
+    public Translator(Options opts, FrontEnd frontEnd, FragmentCache cache) {
+        this.opts = opts;
+        this.frontEnd = frontEnd;
+        deadStores = opts.deadStores ? new DeadStores() : null;
+        metrics = opts.metrics ? new Metrics() : null;
+        sourceMap = opts.sourceMap ? new SourceMap() : null;
+        // a cached fragment has no marks, nor the counts of --metrics or the picks of a profile
+        this.cache = sourceMap == null && metrics == null && opts.pgo == null ? cache : null;
+    }
+
+    // assume opts.input.exists()
+    public void run() throws IOException {
+        long t = now();
+        final File[] vmFiles = opts.vmFiles();
+        lap(Metrics.Stage.SCAN, t);
+        if (opts.pgo != null)
+            pgo = new Pgo(opts.pgo);
+        if (cache == null && opts.cache && sourceMap == null && metrics == null && pgo == null)
+            cache = new FragmentCache(opts.cacheDir(), opts.codegenKey());
+        // the bytes each file of program was parsed from, for the keys of the cache
+        final ByteBuffer[] contents = new ByteBuffer[vmFiles.length];
+        // whole-program passes need every file parsed before any is written,
+        // as do the routines of --tail-calls and --shared-compare, which writeInit emits only where the program
+        // has the sites to use them
+        final VmFile[] program = opts.deadFunctions || opts.inline > 0 || opts.tailCalls || opts.sharedCompare
+                || pgo != null ? parseAll(vmFiles, contents) : null;
+        t = now();
+        if (opts.inline > 0)
+            System.out.println(Inliner.inline(program, opts.inline, pgo));
+        // after inlining, which leaves the inlined functions uncalled
+        if (opts.deadFunctions)
+            System.out.println(DeadFunctions.eliminate(program, opts));
+        lap(Metrics.Stage.PASSES, t);
+        if (program != null) {
+            // the per-file passes too, which can make or break a call f n; return
+            Stream<VmFile> files = Arrays.stream(program);
+            (opts.parallel ? files.parallel() : files).forEach(this::optimize);
+        }
+        try (AsmOutput asm = output()) {
+            AsmOutput head = passes(asm);
+            CodeWriter writer = newWriter(head);
+            writer.tailCallRoutine = program != null && opts.tailCalls
+                    && Arrays.stream(program).anyMatch(CodeWriter::hasTailCall);
+            // before any file is written, each with a writer of its own in parallel
+            if (program != null && (opts.sharedCompare || pgo != null))
+                compareRoutines = writer.compareRoutines = writer.compareRoutines(program);
+            t = now();
+            writer.writeInit();
+            t = lap(Metrics.Stage.CODEGEN, t);
+            head.flush();
+            lap(Metrics.Stage.FLUSH, t);
+            if (opts.parallel || cache != null) {
+                // each file to its own buffer, then merge in the sorted file order
+                IntStream files = IntStream.range(0, vmFiles.length);
+                AsmOutput[] fragments = (opts.parallel ? files.parallel() : files)
+                        .mapToObj(i -> translate(vmFiles[i], program == null ? null : program[i], contents[i]))
+                        .toArray(AsmOutput[]::new);
+                t = now();
+                for (AsmOutput fragment : fragments) {
+                    fragment.writeTo(asm);
+                }
+            } else {
+                for (int i = 0; i < vmFiles.length; i++) {
+                    VmFile file = program == null ? optimize(parse(vmFiles[i])) : program[i];
+                    t = now();
+                    writer.write(file);
+                    t = lap(Metrics.Stage.CODEGEN, t);
+                    // the passes start clean at each file, like in parallel
+                    head.flush();
+                    lap(Metrics.Stage.FLUSH, t);
+                }
+                t = now();
+            }
+        }
+        lap(Metrics.Stage.FLUSH, t);
+        if (cache != null) {
+            cache.evict();
+            System.out.println(cache.report());
+        }
+        if (deadStores != null)
+            System.out.println(deadStores.report());
+        if (opts.fold)
+            System.out.println("constant folding: removed " + foldRemoved.get() + " commands");
+        if (opts.peephole)
+            System.out.println(Peephole.report(peepholeRemoved));
+        if (sourceMap != null) {
+            sourceMap.write(opts.sourceMapFile());
+            System.out.println("source map: " + opts.sourceMapFile());
+        }
+        if (pgo != null)
+            System.out.println(pgo.report(outputFile()));
+        if (metrics != null) {
+            metrics.files(vmFiles.length);
+            metrics.write(opts.metricsFile(), opts);
+            System.out.println("metrics: " + opts.metricsFile());
+        }
+    }
+
+    /**
+     * @param parsed vmFile after the whole-program and per-file passes, null to parse it here
+     * @param content the bytes parsed was parsed from, null if there is no cache or parsed is null
+     */
+    private AsmOutput translate(File vmFile, VmFile parsed, ByteBuffer content) {
+        try {
+            String key = null;
+            if (cache != null) {
+                // the key is of the very bytes that are parsed, an edit since waits for the next run
+                if (parsed == null)
+                    content = read(vmFile);
+                key = cache.key(vmFile, parsed == null ? "" : programKey(parsed), content);
+                AsmOutput cached = cache.get(key);
+                if (cached != null)
+                    return cached;
+            }
+            VmFile file = parsed == null ? optimize(parse(vmFile, content)) : parsed;
+            AsmOutput fragment = new AsmOutput();
+            AsmOutput head = passes(fragment);
+            long t = now();
+            newWriter(head).write(file);
+            t = lap(Metrics.Stage.CODEGEN, t);
+            head.flush();
+            lap(Metrics.Stage.FLUSH, t);
+            if (cache != null)
+                cache.put(key, fragment);
+            return fragment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the passes over a single file, before it is written
+    private VmFile optimize(VmFile file) {
+        final long t = now();
+        // before folding, which gets the constants it propagates
+        if (deadStores != null)
+            deadStores.run(file);
+        if (opts.fold)
+            foldRemoved.addAndGet(ConstantFolder.fold(file));
+        lap(Metrics.Stage.PASSES, t);
+        return file;
+    }
+
+    private VmFile parse(File vmFile) throws IOException {
+        return parse(vmFile, null);
+    }
+
+    // content null to map vmFile
+    private VmFile parse(File vmFile, ByteBuffer content) throws IOException {
+        final long t = now();
+        VmFile file = content == null ? frontEnd.parse(vmFile) : frontEnd.parse(vmFile, content);
+        lap(Metrics.Stage.PARSE, t);
+        return file;
+    }
+
+    // a copy on the heap, as a mapping would show a later edit to the file
+    private static ByteBuffer read(File vmFile) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(vmFile.toPath()));
+    }
+
+    // ========== --metrics, no clock is read without it
+    private long now() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    private long lap(Metrics.Stage stage, long since) {
+        return metrics == null ? 0 : metrics.lap(stage, since);
+    }
+
+    // with a cache, contents gets the bytes each file was parsed from
+    private VmFile[] parseAll(File[] vmFiles, ByteBuffer[] contents) {
+        IntStream files = IntStream.range(0, vmFiles.length);
+        return (opts.parallel ? files.parallel() : files).mapToObj(i -> {
+            try {
+                if (cache != null)
+                    contents[i] = read(vmFiles[i]);
+                return parse(vmFiles[i], contents[i]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).toArray(VmFile[]::new);
+    }
+
+    // what the whole-program passes left of a file, which may depend on the other files,
+    // as do the compare routines
+    private String programKey(VmFile file) {
+        return compareRoutines == null ? file.toString() : file + " compare routines " + Arrays.toString(compareRoutines);
+    }
+
+    // Xxx.asm, or the assembler writing Xxx.hack
+    private AsmOutput output() throws IOException {
+        final File asmFile = new File(getASMPath(opts.input));
+        if (!opts.hack && !opts.hackBinary) {
+            AsmOutput asm = new AsmOutput(asmFile);
+            if (sourceMap != null)
+                asm.sourceMap(sourceMap);
+            return asm;
+        }
+        Symbols symbols = new Symbols();
+        return new AsmOutput(symbols, new HackEncoder(symbols, outputFile(), opts.hackBinary,
+                opts.asm ? new AsmOutput(asmFile) : null, sourceMap));
+    }
+
+    // Xxx.asm, Xxx.hack or Xxx.bin
+    private File outputFile() {
+        final String asmPath = getASMPath(opts.input);
+        if (!opts.hack && !opts.hackBinary)
+            return new File(asmPath);
+        return new File(asmPath.substring(0, asmPath.length() - ".asm".length()) + (opts.hack ? ".hack" : ".bin"));
+    }
+
+    private CodeWriter newWriter(AsmOutput head) {
+        CodeWriter writer = opts.stackCache ? new StackCacheWriter(head, opts) : new CodeWriter(head, opts);
+        if (metrics != null) {
+            head.countLines();
+            writer.metrics = metrics;
+        }
+        writer.sourceMap = sourceMap;
+        writer.pgo = pgo;
+        writer.compareRoutines = compareRoutines;
+        return writer;
+    }
+
+    // the buffer CodeWriter writes into, to reach out through the enabled passes
+    private AsmOutput passes(AsmOutput out) {
+        if (opts.peephole)
+            return Peephole.open(out, peepholeRemoved);
+        return out;
+    }
+
+    /**
+     * assume in.exists()
+     * Xxx or Xxx.vm to Xxx.asm
+     */
+    static String getASMPath(File in) {
+        if(in.isFile()) {
+            final int pos = in.getName().lastIndexOf('.');
+            String rst = in.getName().substring(0, pos);
+            return rst+".asm";
+        } else if (in.isDirectory()) {
+            return in.getPath() + File.separator + in.getName() + ".asm";
+        } else throw new IllegalArgumentException();
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+// IR of one .vm file, built by a front-end like Parser and written by CodeWriter
+public class VmFile {
+    public final String className;
+    // labels and function names of this file
+    public final Symbols symbols = new Symbols();
+    private final List<VmFunction> functions = new ArrayList<>();
+    private VmFunction current;
+    private int line;
+
+    // Xxx of Xxx.vm
+    public VmFile(String className) {
+        this.className = className;
+    }
+
+    public List<VmFunction> functions() {
+        return functions;
+    }
+
+    // line of the commands added from now on, for SourceMap
+    public void line(int line) {
+        this.line = line;
+    }
+
+    // commands from now on belong to function name
+    public void addFunction(String name, int nLocals) {
+        addFunction(symbols.intern(name), nLocals);
+    }
+
+    // name is a symbol id in symbols
+    public void addFunction(int name, int nLocals) {
+        current = new VmFunction(name, nLocals, line);
+        functions.add(current);
+    }
+
+    // arithmetic and return
+    public void add(Op op) {
+        body().add(op, null, 0, -1, line);
+    }
+
+    // push and pop
+    public void add(Op op, Segment seg, int index) {
+        body().add(op, seg, index, -1, line);
+    }
+
+    // label, goto and if-goto
+    public void add(Op op, String label) {
+        addBranch(op, symbols.intern(label));
+    }
+
+    // label is a symbol id in symbols
+    public void addBranch(Op op, int label) {
+        body().add(op, null, 0, label, line);
+    }
+
+    public void addCall(String calledFuncName, int nArgs) {
+        addCall(symbols.intern(calledFuncName), nArgs);
+    }
+
+    // calledFuncName is a symbol id in symbols
+    public void addCall(int calledFuncName, int nArgs) {
+        body().add(Op.CALL, null, nArgs, calledFuncName, line);
+    }
+
+    // back to .vm text, after the passes
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (VmFunction f : functions) {
+            if (f.name != VmFunction.NO_NAME) {
+                s.append("function ").append(symbols.name(f.name)).append(' ').append(f.nLocals);
+                if (f.nZeroed != f.nLocals)
+                    s.append(" // the first ").append(f.nZeroed).append(" set to 0");
+                s.append('\n');
+            }
+            for (int i = 0; i < f.size(); i++)
+                appendCommand(s, f, i).append('\n');
+        }
+        return s.toString();
+    }
+
+    // the .vm text of command i of f
+    public StringBuilder appendCommand(StringBuilder s, VmFunction f, int i) {
+        final Op op = f.op(i);
+        s.append(op.text);
+        if (op == Op.PUSH || op == Op.POP)
+            s.append(' ').append(f.segment(i).text).append(' ').append(f.index(i));
+        else if (op == Op.CALL)
+            s.append(' ').append(symbols.name(f.label(i))).append(' ').append(f.index(i));
+        else if (f.label(i) >= 0)
+            s.append(' ').append(symbols.name(f.label(i)));
+        return s;
+    }
+
+    private VmFunction body() {
+        if (current == null) {
+            current = new VmFunction(VmFunction.NO_NAME, 0);
+            functions.add(current);
+        }
+        return current;
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.Arrays;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * body of one VM function as parallel primitive arrays, one slot per command:
+ * ops: Op ordinal
+ * segments: Segment ordinal of push/pop, -1 for the others
+ * indexes: index of push/pop, nArgs of call; a folded push constant can be -32768..-1
+ * labels: symbol id of the label of label/goto/if-goto or the callee of call, -1 for the others
+ * lines: line in the .vm file, for SourceMap; 0 if unknown
+ */
+public class VmFunction {
+    // name of the commands before any function, like in a test without Sys.init
+    public static final int NO_NAME = -1;
+
+    // symbol id in the VmFile's pool, or NO_NAME
+    public final int name;
+    public final int nLocals;
+    // the function command sets the first nZeroed locals to 0, the others are written before they are read,
+    // like the extra locals of Inliner
+    public final int nZeroed;
+    // line of the function command, 0 if unknown
+    public final int line;
+
+    private byte[] ops = new byte[16];
+    private byte[] segments = new byte[16];
+    private int[] indexes = new int[16];
+    private int[] labels = new int[16];
+    private int[] lines = new int[16];
+    private int size;
+
+    public VmFunction(int name, int nLocals) {
+        this(name, nLocals, 0);
+    }
+
+    public VmFunction(int name, int nLocals, int line) {
+        this(name, nLocals, nLocals, line);
+    }
+
+    public VmFunction(int name, int nLocals, int nZeroed, int line) {
+        this.name = name;
+        this.nLocals = nLocals;
+        this.nZeroed = nZeroed;
+        this.line = line;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Op op(int i) {
+        return Op.VALUES[ops[i]];
+    }
+
+    // null if op(i) isn't push/pop
+    public Segment segment(int i) {
+        return segments[i] < 0 ? null : Segment.VALUES[segments[i]];
+    }
+
+    public int index(int i) {
+        return indexes[i];
+    }
+
+    public int label(int i) {
+        return labels[i];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    // drop the commands from size on, for a pass rewriting the tail
+    public void truncate(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @param seg null if op isn't push/pop
+     * @param label symbol id, -1 if op has no label
+     */
+    public void add(Op op, Segment seg, int index, int label) {
+        add(op, seg, index, label, 0);
+    }
+
+    // a pass keeps the line of the command it rewrites
+    public void add(Op op, Segment seg, int index, int label, int line) {
+        if (size == ops.length) {
+            int cap = size * 2;
+            ops = Arrays.copyOf(ops, cap);
+            segments = Arrays.copyOf(segments, cap);
+            indexes = Arrays.copyOf(indexes, cap);
+            labels = Arrays.copyOf(labels, cap);
+            lines = Arrays.copyOf(lines, cap);
+        }
+        ops[size] = (byte) op.ordinal();
+        segments[size] = (byte) (seg == null ? -1 : seg.ordinal());
+        indexes[size] = index;
+        labels[size] = label;
+        lines[size] = line;
+        size++;
+    }
+}
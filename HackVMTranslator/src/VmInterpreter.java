@@ -0,0 +1,376 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * --interpret: run the IR of the .vm files directly, without translating it, for testing VM programs.
+ * the program is loaded once into parallel int arrays: an opcode per command with its segment folded in,
+ * and an operand with the labels, the callees and the static addresses resolved.
+ * labels take no slot, label L goto L is a halt.
+ * the memory is the RAM of the translated program: SP, LCL, ARG, THIS, THAT, temp at 5, statics from 16
+ * in the order they first appear, the stack at 256, so RAM reads the same after either run.
+ * only a return address differs, it is the index of a command instead of a ROM address
+ */
+public class VmInterpreter {
+    // why run() returned
+    public enum Stop { HALT, END, LIMIT }
+
+    private static final long DEFAULT_MAX_STEPS = 1L << 32;
+    private static final int SP = 0, LCL = 1, ARG = 2, THIS = 3, THAT = 4;
+    private static final int TEMP = 5;
+    private static final int FIRST_STATIC = 16;
+    private static final int STACK = 256;
+
+    // opcodes
+    private static final int PUSH_CONSTANT = 0, PUSH_ADDRESS = 1, PUSH_LOCAL = 2, PUSH_ARGUMENT = 3,
+            PUSH_THIS = 4, PUSH_THAT = 5, POP_ADDRESS = 6, POP_LOCAL = 7, POP_ARGUMENT = 8, POP_THIS = 9,
+            POP_THAT = 10, ADD = 11, SUB = 12, NEG = 13, EQ = 14, GT = 15, LT = 16, AND = 17, OR = 18, NOT = 19,
+            GOTO = 20, IF_GOTO = 21, FUNCTION = 22, CALL = 23, RETURN = 24, HALT = 25, END = 26;
+
+    public final int[] ram = new int[Cpu.MEMORY_SIZE];
+    // per command
+    private int[] ops = new int[256];
+    private int[] args = new int[256];
+    // nArgs of a call
+    private int[] nArgs = new int[256];
+    private int size;
+    // the source of each command, for the errors
+    private VmFile[] fileOf = new VmFile[256];
+    private VmFunction[] functionOf = new VmFunction[256];
+    private int[] commandOf = new int[256];
+    // the first command, Sys.init if there is one
+    private final int entry;
+    private final boolean bootstrap;
+
+    public int pc;
+    public long steps;
+
+    /**
+     * load the files of a program, in the order they are translated
+     */
+    public VmInterpreter(VmFile[] program) {
+        Map<String, Integer> functions = new HashMap<>();
+        Map<String, Integer> statics = new HashMap<>();
+        for (VmFile file : program) {
+            for (VmFunction f : file.functions()) {
+                final int start = size;
+                if (f.name != VmFunction.NO_NAME) {
+                    if (functions.put(file.symbols.name(f.name), size) != null)
+                        throw new IllegalArgumentException(file.className + ".vm line " + f.line
+                                + ": function " + file.symbols.name(f.name) + " is defined twice");
+                    add(FUNCTION, f.nLocals, file, f, -1);
+                }
+                // label symbol id -> the command after it
+                Map<Integer, Integer> labels = new HashMap<>();
+                for (int i = 0; i < f.size(); i++) {
+                    if (f.op(i) == Op.LABEL)
+                        labels.put(f.label(i), size);
+                    else
+                        load(file, f, i, statics);
+                }
+                for (int at = start; at < size; at++) {
+                    if (ops[at] != GOTO && ops[at] != IF_GOTO)
+                        continue;
+                    Integer target = labels.get(args[at]);
+                    if (target == null)
+                        throw illegal(at, "no label " + file.symbols.name(args[at]) + " in the function");
+                    args[at] = target;
+                    if (ops[at] == GOTO && target == at)
+                        ops[at] = HALT;
+                }
+            }
+        }
+        for (int at = 0; at < size; at++) {
+            if (ops[at] != CALL)
+                continue;
+            final VmFile file = fileOf[at];
+            Integer target = functions.get(file.symbols.name(args[at]));
+            if (target == null)
+                throw illegal(at, "no function " + file.symbols.name(args[at]));
+            args[at] = target;
+        }
+        Integer sysInit = functions.get("Sys.init");
+        bootstrap = sysInit != null;
+        entry = bootstrap ? sysInit : 0;
+        add(END, 0, null, null, -1);
+        reset();
+    }
+
+    // back to the start, with the RAM cleared like the bootstrap of CodeWriter leaves it
+    public void reset() {
+        Arrays.fill(ram, 0);
+        ram[SP] = STACK;
+        pc = entry;
+        steps = 0;
+        // call Sys.init 0, returning to the END past the program
+        if (bootstrap) {
+            ram[STACK] = size - 1;
+            ram[ARG] = STACK;
+            ram[SP] = STACK + 5;
+            ram[LCL] = STACK + 5;
+        }
+    }
+
+    private void load(VmFile file, VmFunction f, int i, Map<String, Integer> statics) {
+        final Op op = f.op(i);
+        switch (op) {
+            case PUSH:
+            case POP:
+                final boolean push = op == Op.PUSH;
+                final int index = f.index(i);
+                switch (f.segment(i)) {
+                    case CONSTANT:
+                        if (!push)
+                            throw new IllegalArgumentException(where(file, f, i) + ": pop constant");
+                        add(PUSH_CONSTANT, (short) index, file, f, i);
+                        return;
+                    case LOCAL:
+                        add(push ? PUSH_LOCAL : POP_LOCAL, index, file, f, i);
+                        return;
+                    case ARGUMENT:
+                        add(push ? PUSH_ARGUMENT : POP_ARGUMENT, index, file, f, i);
+                        return;
+                    case THIS:
+                        add(push ? PUSH_THIS : POP_THIS, index, file, f, i);
+                        return;
+                    case THAT:
+                        add(push ? PUSH_THAT : POP_THAT, index, file, f, i);
+                        return;
+                    case TEMP:
+                        if (index > 7)
+                            throw new IllegalArgumentException(where(file, f, i) + ": temp " + index);
+                        add(push ? PUSH_ADDRESS : POP_ADDRESS, TEMP + index, file, f, i);
+                        return;
+                    case POINTER:
+                        if (index > 1)
+                            throw new IllegalArgumentException(where(file, f, i) + ": pointer " + index);
+                        add(push ? PUSH_ADDRESS : POP_ADDRESS, THIS + index, file, f, i);
+                        return;
+                    default:
+                        final int address = statics.computeIfAbsent(file.className + '.' + index,
+                                s -> FIRST_STATIC + statics.size());
+                        add(push ? PUSH_ADDRESS : POP_ADDRESS, address, file, f, i);
+                        return;
+                }
+            case GOTO:
+                add(GOTO, f.label(i), file, f, i);
+                return;
+            case IF_GOTO:
+                add(IF_GOTO, f.label(i), file, f, i);
+                return;
+            case CALL:
+                add(CALL, f.label(i), file, f, i);
+                nArgs[size - 1] = f.index(i);
+                return;
+            case RETURN:
+                add(RETURN, 0, file, f, i);
+                return;
+            default:
+                // the arithmetic ops are in the order of Op
+                add(ADD + op.ordinal(), 0, file, f, i);
+        }
+    }
+
+    private void add(int op, int arg, VmFile file, VmFunction f, int i) {
+        if (size == ops.length) {
+            final int cap = size * 2;
+            ops = Arrays.copyOf(ops, cap);
+            args = Arrays.copyOf(args, cap);
+            nArgs = Arrays.copyOf(nArgs, cap);
+            fileOf = Arrays.copyOf(fileOf, cap);
+            functionOf = Arrays.copyOf(functionOf, cap);
+            commandOf = Arrays.copyOf(commandOf, cap);
+        }
+        ops[size] = op;
+        args[size] = arg;
+        fileOf[size] = file;
+        functionOf[size] = f;
+        commandOf[size] = i;
+        size++;
+    }
+
+    /**
+     * run up to a halt, the end of the program or maxSteps more commands
+     * @return why it stopped
+     */
+    public Stop run(long maxSteps) {
+        final int[] ops = this.ops;
+        final int[] args = this.args;
+        final int[] ram = this.ram;
+        final long limit = maxSteps > Long.MAX_VALUE - steps ? Long.MAX_VALUE : steps + maxSteps;
+        int pc = this.pc;
+        int sp = ram[SP];
+        long n = steps;
+        Stop stop = Stop.LIMIT;
+        try {
+            run:
+            while (n < limit) {
+                final int arg = args[pc];
+                n++;
+                switch (ops[pc++]) {
+                    case PUSH_CONSTANT:
+                        ram[sp++] = arg;
+                        break;
+                    case PUSH_ADDRESS:
+                        ram[sp++] = ram[arg];
+                        break;
+                    case PUSH_LOCAL:
+                        ram[sp++] = ram[ram[LCL] + arg];
+                        break;
+                    case PUSH_ARGUMENT:
+                        ram[sp++] = ram[ram[ARG] + arg];
+                        break;
+                    case PUSH_THIS:
+                        ram[sp++] = ram[ram[THIS] + arg];
+                        break;
+                    case PUSH_THAT:
+                        ram[sp++] = ram[ram[THAT] + arg];
+                        break;
+                    case POP_ADDRESS:
+                        ram[arg] = ram[--sp];
+                        break;
+                    case POP_LOCAL:
+                        ram[ram[LCL] + arg] = ram[--sp];
+                        break;
+                    case POP_ARGUMENT:
+                        ram[ram[ARG] + arg] = ram[--sp];
+                        break;
+                    case POP_THIS:
+                        ram[ram[THIS] + arg] = ram[--sp];
+                        break;
+                    case POP_THAT:
+                        ram[ram[THAT] + arg] = ram[--sp];
+                        break;
+                    case ADD:
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] + ram[sp]);
+                        break;
+                    case SUB:
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]);
+                        break;
+                    case NEG:
+                        ram[sp - 1] = (short) -ram[sp - 1];
+                        break;
+                    // x - y against 0 at 16 bits, overflow included, like the translated code
+                    case EQ:
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]) == 0 ? -1 : 0;
+                        break;
+                    case GT:
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]) > 0 ? -1 : 0;
+                        break;
+                    case LT:
+                        sp--;
+                        ram[sp - 1] = (short) (ram[sp - 1] - ram[sp]) < 0 ? -1 : 0;
+                        break;
+                    case AND:
+                        sp--;
+                        ram[sp - 1] &= ram[sp];
+                        break;
+                    case OR:
+                        sp--;
+                        ram[sp - 1] |= ram[sp];
+                        break;
+                    case NOT:
+                        ram[sp - 1] = ~ram[sp - 1];
+                        break;
+                    case GOTO:
+                        pc = arg;
+                        break;
+                    case IF_GOTO:
+                        if (ram[--sp] != 0)
+                            pc = arg;
+                        break;
+                    case FUNCTION:
+                        for (int i = 0; i < arg; i++)
+                            ram[sp++] = 0;
+                        break;
+                    case CALL:
+                        ram[sp] = pc;
+                        ram[sp + 1] = ram[LCL];
+                        ram[sp + 2] = ram[ARG];
+                        ram[sp + 3] = ram[THIS];
+                        ram[sp + 4] = ram[THAT];
+                        sp += 5;
+                        ram[ARG] = sp - 5 - nArgs[pc - 1];
+                        ram[LCL] = sp;
+                        pc = arg;
+                        break;
+                    case RETURN: {
+                        final int frame = ram[LCL];
+                        final int ret = ram[frame - 5];
+                        ram[ram[ARG]] = ram[sp - 1];
+                        sp = ram[ARG] + 1;
+                        ram[THAT] = ram[frame - 1];
+                        ram[THIS] = ram[frame - 2];
+                        ram[ARG] = ram[frame - 3];
+                        ram[LCL] = ram[frame - 4];
+                        pc = ret;
+                        break;
+                    }
+                    case HALT:
+                        pc--;
+                        stop = Stop.HALT;
+                        break run;
+                    default:
+                        // END isn't a command
+                        pc--;
+                        n--;
+                        stop = Stop.END;
+                        break run;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            this.pc = pc - 1;
+            throw new IllegalStateException(where(pc - 1) + ": address out of the RAM", e);
+        }
+        this.pc = pc;
+        ram[SP] = sp;
+        steps = n;
+        return stop;
+    }
+
+    // Xxx.vm line n: the command at
+    public String where(int at) {
+        if (fileOf[at] == null)
+            return "the end of the program";
+        return where(fileOf[at], functionOf[at], commandOf[at]);
+    }
+
+    private static String where(VmFile file, VmFunction f, int i) {
+        if (i < 0)
+            return file.className + ".vm line " + f.line + ": function " + file.symbols.name(f.name);
+        return file.className + ".vm line " + f.line(i) + ": " + file.appendCommand(new StringBuilder(), f, i);
+    }
+
+    private IllegalArgumentException illegal(int at, String msg) {
+        return new IllegalArgumentException(where(at) + ": " + msg);
+    }
+
+    // --interpret for Main and VMTranslator, assume opts.input.exists()
+    public static void run(Options opts, Translator.FrontEnd frontEnd) throws IOException {
+        final File[] vmFiles = opts.vmFiles();
+        VmFile[] program = new VmFile[vmFiles.length];
+        for (int i = 0; i < vmFiles.length; i++)
+            program[i] = frontEnd.parse(vmFiles[i]);
+        VmInterpreter vm = new VmInterpreter(program);
+        final long start = System.nanoTime();
+        final Stop stop = vm.run(DEFAULT_MAX_STEPS);
+        final long nanos = System.nanoTime() - start;
+        System.out.println((stop == Stop.HALT ? "halted" : stop == Stop.END ? "ran past the program"
+                : "stopped") + " after " + vm.steps + " commands, at " + vm.where(vm.pc));
+        System.out.printf("%.3f ms, %.1f M commands/s%n", nanos / 1e6, vm.steps * 1e3 / Math.max(nanos, 1));
+        System.out.println("SP..THAT " + Arrays.toString(Arrays.copyOfRange(vm.ram, SP, THAT + 1))
+                + " temp " + Arrays.toString(Arrays.copyOfRange(vm.ram, TEMP, TEMP + 8)));
+        System.out.println("stack " + Arrays.toString(Arrays.copyOfRange(vm.ram, STACK, Math.max(STACK, vm.ram[SP]))));
+    }
+}
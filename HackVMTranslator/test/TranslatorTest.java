@@ -0,0 +1,181 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * runs each program under test/ on VmInterpreter, the reference, then translates it with each set of FLAGS
+ * and runs the output on Cpu, or on Jit for a set with --jit. every run must halt with the RAM of Xxx/Xxx.cmp,
+ * lines of RAM[address] = value like Emulator --dump prints them.
+ * a program is a dir Xxx of .vm files with a Sys.init that ends in a halt loop.
+ * javac -d out src/*.java test/TranslatorTest.java && java -cp out TranslatorTest test
+ */
+public class TranslatorTest {
+    private static final long MAX_CYCLES = 1L << 28;
+    // --jit isn't an option of the translator, it runs the output on Jit
+    private static final String JIT = "--jit";
+    private static final String[][] FLAGS = {
+            {},
+            {"--peephole"},
+            {"--stack-cache"},
+            {"--inline"},
+            {"--inline=64"},
+            {"--fold"},
+            {"--tail-calls"},
+            {"--dead-stores"},
+            {"--dead-functions"},
+            {"--shared-calls"},
+            {"--shared-compare"},
+            {"--stack-cache", "--shared-calls", "--shared-compare", "--tail-calls"},
+            {"--inline", "--fold", "--dead-stores", "--dead-functions", "--tail-calls", "--peephole"},
+            {"--inline", "--fold", "--dead-stores", "--dead-functions", "--tail-calls", "--stack-cache", "--peephole"},
+            {JIT},
+            {JIT, "--peephole", "--stack-cache", "--tail-calls"},
+    };
+
+    private int passed;
+    private int failed;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 || !new File(args[0]).isDirectory()) {
+            System.out.println("usage: TranslatorTest <test dir>");
+            return;
+        }
+        File[] programs = new File(args[0]).listFiles(File::isDirectory);
+        assert programs != null;
+        Arrays.sort(programs, Comparator.comparing(File::getName));
+        TranslatorTest test = new TranslatorTest();
+        for (File program : programs)
+            test.run(program);
+        System.out.println(test.passed + " passed, " + test.failed + " failed");
+        if (test.failed > 0)
+            System.exit(1);
+    }
+
+    private void run(File program) throws IOException {
+        final Map<Integer, Integer> expected = readCmp(new File(program, program.getName() + ".cmp"));
+        VmInterpreter vm = new VmInterpreter(parse(program));
+        final VmInterpreter.Stop stop = vm.run(MAX_CYCLES);
+        check(program.getName() + " --interpret", stop == VmInterpreter.Stop.HALT, stop, vm.ram, expected);
+        for (String[] flags : FLAGS) {
+            final Path dir = copy(program);
+            try {
+                check(program, flags, dir, expected);
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    // translate the copy in dir with flags and run it
+    private void check(File program, String[] flags, Path dir, Map<Integer, Integer> expected) throws IOException {
+        final String name = program.getName() + (flags.length == 0 ? "" : " " + String.join(" ", flags));
+        final boolean jit = flags.length > 0 && flags[0].equals(JIT);
+        List<String> args = new ArrayList<>();
+        args.add(dir.toString());
+        args.addAll(Arrays.asList(flags).subList(jit ? 1 : 0, flags.length));
+        Options opts = Options.parse(args.toArray(new String[0]));
+        assert opts != null : name;
+        // the reports of the passes only clutter the results
+        final PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            new Translator(opts, (vmFile, content) -> new Parser(content).parse(className(vmFile))).run();
+        } finally {
+            System.setOut(stdout);
+        }
+        final int[] words = Emulator.load(new File(Translator.getASMPath(opts.input)));
+        Cpu cpu = new Cpu(words);
+        final Cpu.Stop stop = jit ? new Jit(cpu, words).run(MAX_CYCLES) : cpu.run(MAX_CYCLES);
+        int[] ram = new int[cpu.ram.length];
+        for (int i = 0; i < ram.length; i++)
+            ram[i] = cpu.ram[i];
+        check(name, stop == Cpu.Stop.HALT, stop, ram, expected);
+    }
+
+    private void check(String name, boolean halted, Object stop, int[] ram, Map<Integer, Integer> expected) {
+        StringBuilder errors = new StringBuilder();
+        if (!halted)
+            errors.append(" stopped with ").append(stop);
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            final int value = (short) ram[e.getKey()];
+            if (value != e.getValue())
+                errors.append(" RAM[").append(e.getKey()).append("] = ").append(value)
+                        .append(", expected ").append(e.getValue()).append(';');
+        }
+        if (errors.length() == 0) {
+            passed++;
+            System.out.println("ok   " + name);
+        } else {
+            failed++;
+            System.out.println("FAIL " + name + ":" + errors);
+        }
+    }
+
+    // the .vm files of program in the order Options.vmFiles gives them
+    private static VmFile[] parse(File program) throws IOException {
+        File[] vmFiles = program.listFiles((dir, name) -> name.endsWith(".vm"));
+        assert vmFiles != null;
+        Arrays.sort(vmFiles, Comparator.comparing(File::getName));
+        VmFile[] files = new VmFile[vmFiles.length];
+        for (int i = 0; i < vmFiles.length; i++)
+            files[i] = new Parser(ByteBuffer.wrap(Files.readAllBytes(vmFiles[i].toPath()))).parse(className(vmFiles[i]));
+        return files;
+    }
+
+    // RAM[address] = value per line
+    private static Map<Integer, Integer> readCmp(File cmp) throws IOException {
+        Map<Integer, Integer> expected = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(cmp.toPath())) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            final int close = line.indexOf(']');
+            if (!line.startsWith("RAM[") || close < 0 || line.indexOf('=') < close)
+                throw new IllegalArgumentException(cmp + ": " + line);
+            expected.put(Integer.parseInt(line.substring("RAM[".length(), close)),
+                    Integer.parseInt(line.substring(line.indexOf('=') + 1).trim()));
+        }
+        return expected;
+    }
+
+    // the .vm files of program in a fresh dir of the same name, so the output is written there
+    private static Path copy(File program) throws IOException {
+        final Path dir = Files.createTempDirectory("vmtest").resolve(program.getName());
+        Files.createDirectory(dir);
+        File[] vmFiles = program.listFiles((d, name) -> name.endsWith(".vm"));
+        assert vmFiles != null;
+        for (File vmFile : vmFiles)
+            Files.copy(vmFile.toPath(), dir.resolve(vmFile.getName()));
+        return dir;
+    }
+
+    // dir and the temp dir around it
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir.getParent())) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(p);
+        }
+    }
+
+    // Xxx.vm to Xxx
+    private static String className(File vmFile) {
+        final String name = vmFile.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+}
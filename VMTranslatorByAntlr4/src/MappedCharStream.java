@@ -0,0 +1,89 @@
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Joiy908
+ * @date 2026/10/18
+ */
+
+/**
+ * CharStream over the bytes of a .vm file, usually memory-mapped, one char per byte like the ASCII it is.
+ * nothing is copied to the heap but the text of the tokens that are asked for.
+ * CharStreams has no stream over a buffer without an array behind it
+ */
+public class MappedCharStream implements CharStream {
+    private final ByteBuffer in;
+    private final int size;
+    private final String name;
+    private int pos;
+
+    public MappedCharStream(ByteBuffer in, String name) {
+        this.in = in;
+        this.size = in.limit();
+        this.name = name;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        final int start = Math.max(interval.a, 0);
+        final int stop = Math.min(interval.b, size - 1);
+        if (stop < start)
+            return "";
+        byte[] text = new byte[stop - start + 1];
+        for (int i = start; i <= stop; i++)
+            text[i - start] = in.get(i);
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void consume() {
+        if (pos >= size)
+            throw new IllegalStateException("cannot consume EOF");
+        pos++;
+    }
+
+    // LA(1) is the current char, LA(-1) the one before
+    @Override
+    public int LA(int i) {
+        if (i == 0)
+            return 0;
+        final int at = i > 0 ? pos + i - 1 : pos + i;
+        if (at < 0 || at >= size)
+            return IntStream.EOF;
+        return in.get(at) & 0xFF;
+    }
+
+    // the whole file is always there, so marks are free
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return pos;
+    }
+
+    @Override
+    public void seek(int index) {
+        pos = Math.min(index, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return name;
+    }
+}